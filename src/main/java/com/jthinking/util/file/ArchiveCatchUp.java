@@ -0,0 +1,180 @@
+package com.jthinking.util.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * 追读已轮转压缩的gzip归档文件。
+ * 多个归档在有界线程池中并行流式解压，各自写入有界队列；输出线程按文件顺序逐个消费队列，保证输出顺序与文件顺序一致。
+ * 队列满时解压线程阻塞，内存占用不超过线程数乘以队列长度
+ */
+final class ArchiveCatchUp {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ArchiveCatchUp.class);
+
+    /**
+     * 每个归档的解压队列长度
+     */
+    private static final int ARCHIVE_QUEUE_SIZE = 4096;
+
+    /**
+     * 解压缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 归档结束标记，按引用比较
+     */
+    private static final String END_OF_ARCHIVE = new String("");
+
+    /**
+     * 与Tailer一致，使用默认字符集
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final File[] archives;
+
+    private final int threads;
+
+    private final Consumer<String> output;
+
+    private volatile boolean catchUpFlag = true;
+
+    private ExecutorService executor;
+
+    ArchiveCatchUp(File[] archives, int threads, Consumer<String> output) {
+        this.archives = archives;
+        this.threads = threads;
+        this.output = output;
+    }
+
+    /**
+     * 是否gzip压缩文件，按文件头魔数判断
+     * @param file
+     * @return
+     */
+    static boolean isGzip(File file) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return in.read() == 0x1f && in.read() == 0x8b;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 查找目录中的gzip归档：被通配符匹配的压缩文件，以及被匹配文件轮转后的压缩文件（如access.log.1.gz）。按最后修改时间排序
+     * @param dir
+     * @param fileFilter
+     * @return
+     */
+    static File[] findArchives(File dir, FileFilter fileFilter) {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<String> liveNames = new ArrayList<>();
+        for (File file : files) {
+            if (fileFilter.accept(file) && !file.getName().endsWith(".gz")) {
+                liveNames.add(file.getName() + ".");
+            }
+        }
+        return Arrays.stream(files)
+                .filter(file -> fileFilter.accept(file) || liveNames.stream().anyMatch(file.getName()::startsWith))
+                .filter(ArchiveCatchUp::isGzip)
+                .sorted(Comparator.comparingLong(File::lastModified))
+                .toArray(File[]::new);
+    }
+
+    /**
+     * 追读所有归档，全部输出后返回
+     */
+    void run() {
+        if (archives.length == 0) {
+            return;
+        }
+        executor = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            Thread thread = new Thread(runnable);
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<BlockingQueue<String>> queues = new ArrayList<>(archives.length);
+            for (File archive : archives) {
+                BlockingQueue<String> queue = new ArrayBlockingQueue<>(ARCHIVE_QUEUE_SIZE);
+                queues.add(queue);
+                executor.execute(() -> decompress(archive, queue));
+            }
+            for (int i = 0; i < archives.length && catchUpFlag; i++) {
+                BlockingQueue<String> queue = queues.get(i);
+                long count = 0;
+                while (catchUpFlag) {
+                    String line = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (line == END_OF_ARCHIVE) {
+                        break;
+                    }
+                    if (line != null) {
+                        output.accept(line);
+                        count++;
+                    }
+                }
+                LOGGER.info("Archive catch-up finished: {}, lines: {}", archives[i], count);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.error("", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    void stop() {
+        catchUpFlag = false;
+    }
+
+    private void decompress(File archive, BlockingQueue<String> queue) {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(archive), BUFFER_SIZE), CHARSET), BUFFER_SIZE)) {
+            String line;
+            while (catchUpFlag && (line = reader.readLine()) != null) {
+                put(queue, line);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Decompress archive failed: {}", archive, e);
+        } catch (InterruptedException e) {
+            return;
+        }
+        try {
+            put(queue, END_OF_ARCHIVE);
+        } catch (InterruptedException e) {
+            LOGGER.error("", e);
+        }
+    }
+
+    private void put(BlockingQueue<String> queue, String line) throws InterruptedException {
+        while (catchUpFlag && !queue.offer(line, 100, TimeUnit.MILLISECONDS)) {
+            // 等待输出线程消费
+        }
+    }
+}
@@ -3,8 +3,13 @@ package com.jthinking.util.file;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public abstract class CacheQueueListener {
 
@@ -19,7 +24,7 @@ public abstract class CacheQueueListener {
     /**
      * 缓存队列
      */
-    private final ConcurrentLinkedDeque<String> LOG_CACHE = new ConcurrentLinkedDeque<>();
+    private final LinkedBlockingDeque<String> LOG_CACHE = new LinkedBlockingDeque<>();
 
     /**
      * 默认缓存队列最大个数
@@ -34,15 +39,45 @@ public abstract class CacheQueueListener {
     /**
      * 缓存队列超过最大个数后清理策略。默认删除旧数据
      */
-    private CacheQueueFullPolicy cacheQueueFullPolicy = CacheQueueFullPolicy.DELETE_OLD;
+    private volatile CacheQueueFullPolicy cacheQueueFullPolicy = CacheQueueFullPolicy.DELETE_OLD;
 
     /**
      * 缓存队列超过最大个数后清理策略监听器。默认打印到日志
      */
-    private FileSniffer.CacheQueueFullListener cacheQueueFullListener = (policy, line) -> {
+    private volatile FileSniffer.CacheQueueFullListener cacheQueueFullListener = (policy, line) -> {
         LOGGER.info("Listener CacheQueueFull Policy: {} Data: {}", policy, line);
     };
 
+    /**
+     * 内存预算，为null时只按条数限制缓存队列
+     */
+    private volatile MemoryBudget memoryBudget;
+
+    /**
+     * 缓存队列在内存预算中的账户
+     */
+    private volatile MemoryBudget.Account budgetAccount;
+
+    /**
+     * 是否已接收过数据。接收数据后不能再修改内存预算
+     */
+    private volatile boolean received;
+
+    /**
+     * 同组监听器（包含自身）。开启工作窃取时，本监听器空闲后从其他监听器缓存队列尾部窃取数据
+     */
+    private volatile List<CacheQueueListener> siblings = Collections.emptyList();
+
+    /**
+     * 从同组其他监听器窃取的数据条数
+     */
+    private final LongAdder stolenCount = new LongAdder();
+
+    /**
+     * 监听器被删除后，缓存队列中未处理数据的接收者
+     */
+    private volatile Consumer<String> handover;
+
     /**
      * 组ID
      */
@@ -75,11 +110,14 @@ public abstract class CacheQueueListener {
             while (queueSizeCheckFlag) {
                 int redundant = LOG_CACHE.size() - cacheQueueSize;
                 if (redundant > 0) {
+                    String log;
                     if (this.cacheQueueFullPolicy == CacheQueueFullPolicy.IGNORE_NEW) {
-                        cacheQueueFullListener.listen(this.cacheQueueFullPolicy, LOG_CACHE.pollLast());
+                        log = LOG_CACHE.pollLast();
                     } else {
-                        cacheQueueFullListener.listen(this.cacheQueueFullPolicy, LOG_CACHE.pollFirst());
+                        log = LOG_CACHE.pollFirst();
                     }
+                    release(log);
+                    cacheQueueFullListener.listen(this.cacheQueueFullPolicy, log);
                 }
                 try {
                     Thread.sleep(100);
@@ -99,6 +137,11 @@ public abstract class CacheQueueListener {
             while (logListenFlag) {
                 try {
                     String log = LOG_CACHE.poll();
+                    if (log != null) {
+                        release(log);
+                    } else {
+                        log = steal();
+                    }
                     if (log != null) {
                         process(log);
                     } else {
@@ -116,6 +159,40 @@ public abstract class CacheQueueListener {
         }).start();
     }
 
+    /**
+     * 从同组其他监听器缓存队列尾部窃取一条数据。从随机位置开始遍历，避免总是窃取同一个监听器
+     * @return 窃取到的数据，没有可窃取数据时返回null
+     */
+    private String steal() {
+        List<CacheQueueListener> members = this.siblings;
+        int size = members.size();
+        if (size < 2) {
+            return null;
+        }
+        int offset = ThreadLocalRandom.current().nextInt(size);
+        for (int i = 0; i < size; i++) {
+            CacheQueueListener member = members.get((offset + i) % size);
+            if (member == this) {
+                continue;
+            }
+            String log = member.LOG_CACHE.pollLast();
+            if (log != null) {
+                member.release(log);
+                stolenCount.increment();
+                return log;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 设置同组监听器，空列表表示关闭工作窃取
+     * @param siblings
+     */
+    void setSiblings(List<CacheQueueListener> siblings) {
+        this.siblings = siblings;
+    }
+
     /**
      * 启动
      */
@@ -125,19 +202,119 @@ public abstract class CacheQueueListener {
     }
 
     /**
-     * 停止
+     * 停止，并关闭内存预算账户，归还缓存队列中未处理数据占用的预算
      */
     public void stop() {
         logListenFlag = false;
         queueSizeCheckFlag = false;
+        MemoryBudget.Account account = this.budgetAccount;
+        if (account != null) {
+            account.close();
+        }
+    }
+
+    /**
+     * 是否已停止
+     * @return
+     */
+    boolean isStopped() {
+        return !logListenFlag;
+    }
+
+    /**
+     * 是否已接收过数据
+     * @return
+     */
+    boolean isReceived() {
+        return received;
     }
 
     public void listen(String newLine) {
-        LOG_CACHE.add(newLine);
+        received = true;
+        MemoryBudget.Account account = this.budgetAccount;
+        if (account != null) {
+            account.offer(newLine);
+        } else {
+            LOG_CACHE.add(newLine);
+        }
+        if (!logListenFlag) {
+            // 已停止，分发线程仍持有旧快照时写入的数据继续转交
+            drainTo(handover);
+        }
+    }
+
+    /**
+     * 停止监听器，并将缓存队列中未处理的数据转交给接收者
+     * @param handover
+     */
+    void handOver(Consumer<String> handover) {
+        this.handover = handover;
+        stop();
+        drainTo(handover);
+    }
+
+    private void drainTo(Consumer<String> target) {
+        if (target == null) {
+            return;
+        }
+        String log;
+        while ((log = LOG_CACHE.poll()) != null) {
+            release(log);
+            target.accept(log);
+        }
+    }
+
+    /**
+     * 数据离开缓存队列，归还内存预算
+     * @param log
+     */
+    private void release(String log) {
+        MemoryBudget.Account account = this.budgetAccount;
+        if (account != null && log != null) {
+            account.release(log);
+        }
     }
 
     public abstract void process(String newLine);
 
+    /**
+     * 为缓存队列之外暂存的数据（如输出监听器的交接队列）申请内存预算，不删除本监听器缓存队列中的数据。未设置预算时总是成功
+     * @param line
+     * @return 预算不足时返回false
+     */
+    protected final boolean tryAcquireBudget(String line) {
+        MemoryBudget.Account account = this.budgetAccount;
+        return account == null || account.tryAcquire(MemoryBudget.sizeOf(line));
+    }
+
+    /**
+     * 归还tryAcquireBudget申请的内存预算
+     * @param line
+     */
+    protected final void releaseBudget(String line) {
+        MemoryBudget.Account account = this.budgetAccount;
+        if (account != null) {
+            account.release(line);
+        }
+    }
+
+    /**
+     * 无法处理的数据交给缓存队列满时处理策略监听器
+     * @param line
+     */
+    protected final void discard(String line) {
+        cacheQueueFullListener.listen(cacheQueueFullPolicy, line);
+    }
+
+    /**
+     * 缓存队列是否已满，按条数和内存预算判断
+     * @param line 待加入的数据
+     * @return
+     */
+    boolean isCacheQueueFull(String line) {
+        return MemoryBudget.isFull(budgetAccount, line, LOG_CACHE.size(), cacheQueueSize);
+    }
+
     public String getGroupId() {
         return this.groupId;
     }
@@ -146,6 +323,22 @@ public abstract class CacheQueueListener {
         return this.listenerId;
     }
 
+    /**
+     * 设置缓存队列超过最大个数后清理策略监听器，停止后无法处理的数据也交给该监听器
+     * @param cacheQueueFullListener
+     */
+    public void setCacheQueueFullListener(FileSniffer.CacheQueueFullListener cacheQueueFullListener) {
+        this.cacheQueueFullListener = cacheQueueFullListener;
+    }
+
+    public CacheQueueFullPolicy getCacheQueueFullPolicy() {
+        return cacheQueueFullPolicy;
+    }
+
+    public void setCacheQueueFullPolicy(CacheQueueFullPolicy cacheQueueFullPolicy) {
+        this.cacheQueueFullPolicy = cacheQueueFullPolicy;
+    }
+
     public int getCacheQueueSize() {
         return cacheQueueSize;
     }
@@ -154,6 +347,36 @@ public abstract class CacheQueueListener {
         this.cacheQueueSize = cacheQueueSize;
     }
 
+    /**
+     * 从同组其他监听器窃取的数据条数
+     * @return
+     */
+    public long getStolenCount() {
+        return stolenCount.sum();
+    }
+
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * 设置内存预算，必须在监听器接收数据前设置，否则抛出IllegalStateException。
+     * 注册到设置了内存预算的FileSniffer时，未设置预算的监听器共享FileSniffer的预算
+     * @param memoryBudget
+     */
+    public synchronized void setMemoryBudget(MemoryBudget memoryBudget) {
+        if (received) {
+            throw new IllegalStateException("MemoryBudget must be set before the listener receives data");
+        }
+        MemoryBudget.Account old = this.budgetAccount;
+        if (old != null) {
+            old.close();
+        }
+        this.memoryBudget = memoryBudget;
+        this.budgetAccount = memoryBudget == null ? null : memoryBudget.register(LOG_CACHE,
+                () -> cacheQueueFullPolicy, line -> cacheQueueFullListener.listen(cacheQueueFullPolicy, line));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
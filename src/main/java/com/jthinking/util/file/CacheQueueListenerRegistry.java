@@ -0,0 +1,145 @@
+package com.jthinking.util.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 监听器注册表，按group-id分组。
+ * 写时复制：增删监听器时生成新的不可变快照，分发线程直接读取快照，无需加锁和复制
+ */
+final class CacheQueueListenerRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheQueueListenerRegistry.class);
+
+    /**
+     * 当前快照，group-id -> 组内监听器。Map和List均不可修改
+     */
+    private volatile Map<String, List<CacheQueueListener>> snapshot = Collections.emptyMap();
+
+    /**
+     * 同组监听器之间是否开启工作窃取
+     */
+    private volatile boolean workStealing = true;
+
+    /**
+     * 获取当前快照
+     * @return
+     */
+    Map<String, List<CacheQueueListener>> snapshot() {
+        return snapshot;
+    }
+
+    /**
+     * 注册监听器。相同group-id和listener-id的监听器已存在时不重复注册
+     * @param listener
+     * @return 是否注册成功
+     */
+    boolean add(CacheQueueListener listener) {
+        return add(listener, l -> { });
+    }
+
+    /**
+     * 注册监听器。相同group-id和listener-id的监听器已存在时不重复注册
+     * @param listener
+     * @param beforePublish 确认可以注册后、分发线程可见之前调用，如设置内存预算
+     * @return 是否注册成功
+     */
+    synchronized boolean add(CacheQueueListener listener, Consumer<CacheQueueListener> beforePublish) {
+        List<CacheQueueListener> members = snapshot.get(listener.getGroupId());
+        if (members != null && indexOf(members, listener) != -1) {
+            return false;
+        }
+        beforePublish.accept(listener);
+        List<CacheQueueListener> newMembers = members == null ? new ArrayList<>() : new ArrayList<>(members);
+        newMembers.add(listener);
+        publish(listener.getGroupId(), newMembers);
+        return true;
+    }
+
+    /**
+     * 删除监听器，按group-id和listener-id匹配。被删除的监听器停止后，其缓存队列中未处理的数据轮流转交给同组剩余监听器
+     * @param listener
+     * @return 被删除的监听器，不存在时返回null
+     */
+    synchronized CacheQueueListener remove(CacheQueueListener listener) {
+        List<CacheQueueListener> members = snapshot.get(listener.getGroupId());
+        if (members == null) {
+            return null;
+        }
+        int index = indexOf(members, listener);
+        if (index == -1) {
+            return null;
+        }
+        CacheQueueListener removed = members.get(index);
+        List<CacheQueueListener> newMembers = new ArrayList<>(members);
+        newMembers.remove(index);
+        publish(listener.getGroupId(), newMembers);
+        removed.setSiblings(Collections.emptyList());
+
+        List<CacheQueueListener> remaining = snapshot.getOrDefault(listener.getGroupId(), Collections.emptyList());
+        if (remaining.isEmpty()) {
+            removed.handOver(line -> LOGGER.warn("Listener {}/{} removed, no listener left in group, Data: {}",
+                    removed.getGroupId(), removed.getListenerId(), line));
+        } else {
+            AtomicInteger cursor = new AtomicInteger();
+            removed.handOver(line -> remaining.get((cursor.getAndIncrement() & Integer.MAX_VALUE) % remaining.size()).listen(line));
+        }
+        return removed;
+    }
+
+    boolean isWorkStealing() {
+        return workStealing;
+    }
+
+    /**
+     * 设置同组监听器之间是否开启工作窃取
+     * @param workStealing
+     */
+    synchronized void setWorkStealing(boolean workStealing) {
+        this.workStealing = workStealing;
+        for (List<CacheQueueListener> members : snapshot.values()) {
+            refreshSiblings(members);
+        }
+    }
+
+    /**
+     * 以新的组成员生成新快照并发布
+     * @param groupId
+     * @param members
+     */
+    private void publish(String groupId, List<CacheQueueListener> members) {
+        Map<String, List<CacheQueueListener>> newSnapshot = new LinkedHashMap<>(snapshot);
+        if (members.isEmpty()) {
+            newSnapshot.remove(groupId);
+        } else {
+            List<CacheQueueListener> unmodifiable = Collections.unmodifiableList(members);
+            newSnapshot.put(groupId, unmodifiable);
+            refreshSiblings(unmodifiable);
+        }
+        this.snapshot = Collections.unmodifiableMap(newSnapshot);
+    }
+
+    private void refreshSiblings(List<CacheQueueListener> members) {
+        List<CacheQueueListener> siblings = workStealing ? members : Collections.emptyList();
+        for (CacheQueueListener member : members) {
+            member.setSiblings(siblings);
+        }
+    }
+
+    private static int indexOf(List<CacheQueueListener> members, CacheQueueListener listener) {
+        for (int i = 0; i < members.size(); i++) {
+            if (members.get(i).getListenerId().equals(listener.getListenerId())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
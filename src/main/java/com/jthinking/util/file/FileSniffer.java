@@ -14,8 +14,12 @@ import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public class FileSniffer implements Closeable {
 
@@ -27,9 +31,34 @@ public class FileSniffer implements Closeable {
     private static final int DEFAULT_CACHE_QUEUE_SIZE = 20000;
 
     /**
-     * 缓存队列
+     * 默认批次最长等待时间，单位毫秒
      */
-    private final ConcurrentLinkedDeque<String> LOG_CACHE = new ConcurrentLinkedDeque<>();
+    private static final long DEFAULT_MAX_LINGER_MILLIS = 50;
+
+    /**
+     * 默认批次最小条数
+     */
+    private static final int DEFAULT_MIN_BATCH_SIZE = 1;
+
+    /**
+     * 默认批次最大条数
+     */
+    private static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
+    /**
+     * 缓存队列为空时分发线程阻塞等待时间，单位毫秒。有新数据时立即唤醒
+     */
+    private static final long IDLE_POLL_MILLIS = 1000;
+
+    /**
+     * 到达速率估算周期，单位纳秒
+     */
+    private static final long RATE_SAMPLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /**
+     * 缓存队列。size()为O(1)，空闲时分发线程阻塞等待新数据
+     */
+    private final LinkedBlockingDeque<String> LOG_CACHE = new LinkedBlockingDeque<>();
 
     /**
      * 监听文件
@@ -53,10 +82,133 @@ public class FileSniffer implements Closeable {
         LOGGER.info("FileSniffer CacheQueueFull Policy: {} Data: {}", policy, line);
     };
 
+    /**
+     * 内存预算，为null时只按条数限制缓存队列
+     */
+    private volatile MemoryBudget memoryBudget;
+
+    /**
+     * 一级缓存队列在内存预算中的账户
+     */
+    private volatile MemoryBudget.Account budgetAccount;
+
+    /**
+     * 是否已启动。启动后不能再修改内存预算
+     */
+    private volatile boolean started = false;
+
+    /**
+     * 批次延迟目标，单位毫秒。每批最多取该时间内预计到达的条数，分发线程不等待凑批
+     */
+    private volatile long maxLingerMillis = DEFAULT_MAX_LINGER_MILLIS;
+
+    /**
+     * 批次最小条数
+     */
+    private volatile int minBatchSize = DEFAULT_MIN_BATCH_SIZE;
+
+    /**
+     * 批次最大条数
+     */
+    private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+    /**
+     * 读取到的总行数，用于估算到达速率
+     */
+    private final LongAdder receivedCount = new LongAdder();
+
+    /**
+     * 估算的到达速率，单位条/秒
+     */
+    private volatile double arrivalRate;
+
+    /**
+     * 最近一次分发的批次条数
+     */
+    private volatile int lastBatchSize;
+
+
+    /**
+     * 默认乱序窗口，单位毫秒
+     */
+    private static final long DEFAULT_REORDER_WINDOW_MILLIS = 1000;
+
+    /**
+     * 时间戳解析器
+     */
+    private TimestampExtractor timestampExtractor;
+
+    /**
+     * 是否将多个文件的数据按时间戳归并后再分发。需设置时间戳解析器
+     */
+    private boolean mergeByTimestamp = false;
+
+    /**
+     * 按时间戳归并的乱序窗口，单位毫秒
+     */
+    private long reorderWindowMillis = DEFAULT_REORDER_WINDOW_MILLIS;
+
+    /**
+     * 多文件按时间戳归并，未开启时为null
+     */
+    private TimestampMerger timestampMerger;
+
+    /**
+     * 默认索引间隔，单位字节
+     */
+    private static final int DEFAULT_INDEX_INTERVAL_BYTES = 64 * 1024;
+
+    /**
+     * 时间戳索引目录，为null时不建立索引
+     */
+    private File indexDir;
+
+    /**
+     * 索引间隔，单位字节。每隔该字节数记录一次时间戳和偏移
+     */
+    private int indexIntervalBytes = DEFAULT_INDEX_INTERVAL_BYTES;
+
+    /**
+     * 时间戳索引，未开启时为null
+     */
+    private volatile TimestampIndexer timestampIndexer;
+
+    /**
+     * 各被索引文件的实时监听进度，重放截止于此
+     */
+    private final Map<File, LivePosition> livePositions = new ConcurrentHashMap<>();
+
+    /**
+     * 默认归档解压线程数
+     */
+    private static final int DEFAULT_ARCHIVE_THREADS = 2;
+
+    /**
+     * 启动时是否先追读gzip压缩的轮转归档，再切换到实时监听
+     */
+    private boolean archiveCatchUp = false;
+
+    /**
+     * 归档解压线程数
+     */
+    private int archiveThreads = DEFAULT_ARCHIVE_THREADS;
+
+    /**
+     * 归档追读，未开启时为null
+     */
+    private ArchiveCatchUp archiveCatchUpTask;
+
+    /**
+     * 是否正在追读归档。追读期间实时监听线程在catchUpLock上等待，追读完成后再读取，实时数据保留在被监听文件中，不会丢失
+     */
+    private volatile boolean catchingUp = false;
+
+    private final Object catchUpLock = new Object();
+
     /**
      * 已注册的监听器，按group-id分组
      */
-    private Map<String, Set<CacheQueueListener>> listenerMap = new HashMap<>();
+    private final CacheQueueListenerRegistry listenerRegistry = new CacheQueueListenerRegistry();
 
     /**
      * 文件数据追加读取
@@ -131,27 +283,40 @@ public class FileSniffer implements Closeable {
     }
 
     /**
-     * 注册日志监听器
+     * 注册日志监听器，运行中也可以调用。相同group-id和listener-id的监听器已存在时不重复注册。
+     * 已停止或被删除的监听器不能再次注册，需创建新的监听器，否则抛出IllegalStateException
      * @param listener
      */
     public void addCacheQueueListener(CacheQueueListener listener) {
-        Set<CacheQueueListener> listenerSet = listenerMap.get(listener.getGroupId());
-        if (listenerSet != null) {
-            listenerSet.add(listener);
-        } else {
-            Set<CacheQueueListener> temp = new HashSet<>();
-            temp.add(listener);
-            listenerMap.put(listener.getGroupId(), temp);
+        if (listener.isStopped()) {
+            throw new IllegalStateException("Listener " + listener.getGroupId() + "/" + listener.getListenerId()
+                    + " is stopped, create a new one");
+        }
+        listenerRegistry.add(listener, this::shareMemoryBudget);
+    }
+
+    /**
+     * 未单独设置预算的监听器共享FileSniffer的预算。已接收过数据的监听器缓存队列中有未计入预算的数据，保持不限制内存
+     * @param listener
+     */
+    private void shareMemoryBudget(CacheQueueListener listener) {
+        MemoryBudget budget = this.memoryBudget;
+        if (budget == null || listener.getMemoryBudget() != null) {
+            return;
+        }
+        if (listener.isReceived()) {
+            LOGGER.warn("Listener {}/{} has received data, not sharing MemoryBudget", listener.getGroupId(), listener.getListenerId());
+            return;
         }
+        listener.setMemoryBudget(budget);
     }
 
     /**
-     * 删除日志监听器
+     * 删除日志监听器，运行中也可以调用。被删除的监听器停止，其未处理的数据转交给同组剩余监听器
      * @param listener
      */
     public void deleteCacheQueueListener(CacheQueueListener listener) {
-        Set<CacheQueueListener> listenerSet = listenerMap.get(listener.getGroupId());
-        listenerSet.remove(listener);
+        listenerRegistry.remove(listener);
     }
 
     /**
@@ -186,6 +351,242 @@ public class FileSniffer implements Closeable {
         this.cacheQueueFullPolicy = cacheQueueFullPolicy;
     }
 
+    public MemoryBudget getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * 设置内存预算，必须在启动前设置，否则抛出IllegalStateException。一级缓存队列和所有未单独设置预算的监听器缓存队列共享该预算，
+     * 多个FileSniffer也可共享同一预算，进程内缓存占用内存可预期
+     * @param memoryBudget
+     */
+    public synchronized void setMemoryBudget(MemoryBudget memoryBudget) {
+        if (started) {
+            throw new IllegalStateException("MemoryBudget must be set before FileSniffer starts");
+        }
+        MemoryBudget.Account old = this.budgetAccount;
+        if (old != null) {
+            old.close();
+        }
+        this.memoryBudget = memoryBudget;
+        this.budgetAccount = memoryBudget == null ? null : memoryBudget.register(LOG_CACHE,
+                () -> cacheQueueFullPolicy, line -> cacheQueueFullListener.listen(cacheQueueFullPolicy, line));
+        for (List<CacheQueueListener> listeners : listenerRegistry.snapshot().values()) {
+            for (CacheQueueListener listener : listeners) {
+                shareMemoryBudget(listener);
+            }
+        }
+    }
+
+    public TimestampExtractor getTimestampExtractor() {
+        return timestampExtractor;
+    }
+
+    /**
+     * 设置时间戳解析器
+     * @param timestampExtractor
+     */
+    public void setTimestampExtractor(TimestampExtractor timestampExtractor) {
+        this.timestampExtractor = timestampExtractor;
+    }
+
+    public boolean isMergeByTimestamp() {
+        return mergeByTimestamp;
+    }
+
+    /**
+     * 设置是否将通配符匹配的多个文件的数据按时间戳归并后再分发，需在启动前设置，并设置时间戳解析器
+     * @param mergeByTimestamp
+     */
+    public void setMergeByTimestamp(boolean mergeByTimestamp) {
+        this.mergeByTimestamp = mergeByTimestamp;
+    }
+
+    public long getReorderWindowMillis() {
+        return reorderWindowMillis;
+    }
+
+    /**
+     * 设置按时间戳归并的乱序窗口，单位毫秒，默认1000。窗口越大越能容忍文件间的写入延迟，数据分发延迟也越大
+     * @param reorderWindowMillis
+     */
+    public void setReorderWindowMillis(long reorderWindowMillis) {
+        this.reorderWindowMillis = reorderWindowMillis;
+    }
+
+    public File getIndexDir() {
+        return indexDir;
+    }
+
+    /**
+     * 设置时间戳索引目录，需在启动前设置，并设置时间戳解析器。设置后为每个被监听文件建立稀疏时间戳索引，
+     * 可通过replayGroupFrom从指定时间点重放数据
+     * @param indexDir
+     */
+    public void setIndexDir(File indexDir) {
+        this.indexDir = indexDir;
+    }
+
+    public int getIndexIntervalBytes() {
+        return indexIntervalBytes;
+    }
+
+    /**
+     * 设置索引间隔，单位字节，默认64KB。间隔越小索引越大，重放起点越精确
+     * @param indexIntervalBytes
+     */
+    public void setIndexIntervalBytes(int indexIntervalBytes) {
+        this.indexIntervalBytes = indexIntervalBytes;
+    }
+
+    /**
+     * 从指定时间点向指定group重放已索引文件中的数据，在后台线程中执行，不影响其他group。
+     * 按文件最后修改时间顺序重放，通过索引二分查找定位起点，无需从头读取文件。
+     * 每个文件截止到开始重放该文件时实时监听的进度：Tailer最后读到的带时间戳的行，尚未读到时为Tailer启动时的文件末尾，之后的数据只由实时监听送达。
+     * 与截止行时间戳相同、当时尚未被实时监听读到的行会重复，监听器需自行去重或容忍重复。
+     * 只重放仍在监听的文件。重放期间实时数据照常分发，两者在监听器中交错。
+     * 每条重放数据加入前等待目标监听器缓存队列有空闲，不会触发缓存队列满时处理策略
+     * @param groupId
+     * @param timestamp 毫秒时间戳
+     */
+    public void replayGroupFrom(String groupId, long timestamp) {
+        TimestampIndexer indexer = this.timestampIndexer;
+        if (indexer == null) {
+            throw new IllegalStateException("Timestamp index is not enabled or FileSniffer is not started");
+        }
+        Thread thread = new Thread(() -> {
+            long[] sequence = {0};
+            Consumer<String> output = line -> {
+                List<CacheQueueListener> listeners = listenerRegistry.snapshot().get(groupId);
+                if (listeners == null) {
+                    return;
+                }
+                CacheQueueListener listener = listeners.get((int) (sequence[0]++ % listeners.size()));
+                awaitCapacity(listener, line);
+                listener.listen(line);
+            };
+            for (File file : indexer.files()) {
+                LivePosition position = livePositions.get(file);
+                long untilTimestamp = position != null ? position.timestamp : -1;
+                long untilOffset = position != null && untilTimestamp < 0 ? position.startOffset : Long.MAX_VALUE;
+                try {
+                    indexer.replay(file, timestamp, untilTimestamp, untilOffset, output);
+                } catch (IOException e) {
+                    LOGGER.error("", e);
+                }
+            }
+            LOGGER.info("Replay group {} from {} finished, total: {}", groupId, timestamp, sequence[0]);
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 等待监听器缓存队列有空闲，避免重放数据触发缓存队列满时处理策略
+     * @param listener
+     * @param line
+     */
+    private void awaitCapacity(CacheQueueListener listener, String line) {
+        while (logListenFlag && listener.isCacheQueueFull(line)) {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+                LOGGER.error("", e);
+                return;
+            }
+        }
+    }
+
+    public boolean isArchiveCatchUp() {
+        return archiveCatchUp;
+    }
+
+    /**
+     * 设置启动时是否先追读gzip压缩的轮转归档（如access.log.1.gz），需在启动前设置。
+     * 归档按最后修改时间顺序流式解压进入缓存队列，之后再切换到实时监听。追读期间实时监听暂停读取，追读完成后从暂停处继续，实时数据不会丢失
+     * @param archiveCatchUp
+     */
+    public void setArchiveCatchUp(boolean archiveCatchUp) {
+        this.archiveCatchUp = archiveCatchUp;
+    }
+
+    public int getArchiveThreads() {
+        return archiveThreads;
+    }
+
+    /**
+     * 设置归档并行解压线程数，默认2
+     * @param archiveThreads
+     */
+    public void setArchiveThreads(int archiveThreads) {
+        this.archiveThreads = archiveThreads;
+    }
+
+    public boolean isWorkStealing() {
+        return listenerRegistry.isWorkStealing();
+    }
+
+    /**
+     * 设置同组监听器之间是否开启工作窃取，默认开启
+     * @param workStealing
+     */
+    public void setWorkStealing(boolean workStealing) {
+        listenerRegistry.setWorkStealing(workStealing);
+    }
+
+    public long getMaxLingerMillis() {
+        return maxLingerMillis;
+    }
+
+    /**
+     * 设置批次延迟目标，单位毫秒，默认50。每批最多取该时间内预计到达的条数，只取缓存队列中已有的数据，不等待凑批。
+     * 监听器逐条接收数据，等待凑批不会减少分发开销，只会增加延迟
+     * @param maxLingerMillis
+     */
+    public void setMaxLingerMillis(long maxLingerMillis) {
+        this.maxLingerMillis = maxLingerMillis;
+    }
+
+    public int getMinBatchSize() {
+        return minBatchSize;
+    }
+
+    /**
+     * 设置每批最多条数的下限，默认1。低速率时也允许一次取出该条数的积压数据
+     * @param minBatchSize
+     */
+    public void setMinBatchSize(int minBatchSize) {
+        this.minBatchSize = minBatchSize;
+    }
+
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * 设置批次最大条数，默认1000
+     * @param maxBatchSize
+     */
+    public void setMaxBatchSize(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * 获取估算的到达速率，单位条/秒
+     * @return
+     */
+    public double getArrivalRate() {
+        return arrivalRate;
+    }
+
+    /**
+     * 获取最近一次分发的批次条数
+     * @return
+     */
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
     /**
      * 缓存大小控制，删除老数据
      */
@@ -194,11 +595,14 @@ public class FileSniffer implements Closeable {
             while (queueSizeCheckFlag) {
                 int redundant = LOG_CACHE.size() - cacheQueueSize;
                 if (redundant > 0) {
+                    String log;
                     if (this.cacheQueueFullPolicy == CacheQueueFullPolicy.IGNORE_NEW) {
-                        cacheQueueFullListener.listen(this.cacheQueueFullPolicy, LOG_CACHE.pollLast());
+                        log = LOG_CACHE.pollLast();
                     } else {
-                        cacheQueueFullListener.listen(this.cacheQueueFullPolicy, LOG_CACHE.pollFirst());
+                        log = LOG_CACHE.pollFirst();
                     }
+                    release(log);
+                    cacheQueueFullListener.listen(this.cacheQueueFullPolicy, log);
                 }
                 try {
                     Thread.sleep(100);
@@ -212,52 +616,149 @@ public class FileSniffer implements Closeable {
         thread.start();
     }
 
+    /**
+     * 数据加入一级缓存队列，设置了内存预算时按预算和缓存队列满时处理策略处理
+     * @param line
+     */
+    private void offer(String line) {
+        MemoryBudget.Account account = this.budgetAccount;
+        if (account != null) {
+            account.offer(line);
+        } else {
+            LOG_CACHE.add(line);
+        }
+    }
+
+    /**
+     * 数据离开一级缓存队列，归还内存预算
+     * @param line
+     */
+    private void release(String line) {
+        MemoryBudget.Account account = this.budgetAccount;
+        if (account != null && line != null) {
+            account.release(line);
+        }
+    }
+
+    /**
+     * 实时监听到的数据加入一级缓存队列。追读归档期间等待追读完成，Tailer线程随之暂停读取
+     * @param line
+     */
+    private void offerLive(String line) {
+        if (catchingUp) {
+            synchronized (catchUpLock) {
+                while (catchingUp && logListenFlag) {
+                    try {
+                        catchUpLock.wait(100);
+                    } catch (InterruptedException e) {
+                        LOGGER.error("", e);
+                        break;
+                    }
+                }
+            }
+        }
+        offer(line);
+    }
+
+    /**
+     * 等待一级缓存队列有空闲，避免追读数据触发缓存队列满时处理策略
+     * @param line
+     */
+    private void awaitCapacity(String line) {
+        while (logListenFlag && isCacheQueueFull(line)) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                LOGGER.error("", e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 启动归档追读线程，追读完成后唤醒等待的实时监听线程，切换到实时监听
+     */
+    private void startArchiveCatchUp() {
+        File[] archives = ArchiveCatchUp.findArchives(monitorDir, fileFilter);
+        LOGGER.info("Archive catch-up start, archives: {}", Arrays.toString(archives));
+        archiveCatchUpTask = new ArchiveCatchUp(archives, archiveThreads, line -> {
+            awaitCapacity(line);
+            receivedCount.increment();
+            offer(line);
+        });
+        catchingUp = true;
+        Thread thread = new Thread(() -> {
+            archiveCatchUpTask.run();
+            synchronized (catchUpLock) {
+                catchingUp = false;
+                catchUpLock.notifyAll();
+            }
+            LOGGER.info("Archive catch-up finished, switch to live tailing");
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * 一级缓存队列是否已满，按条数和内存预算判断
+     * @param line 待加入的数据
+     * @return
+     */
+    private boolean isCacheQueueFull(String line) {
+        return MemoryBudget.isFull(budgetAccount, line, LOG_CACHE.size(), cacheQueueSize);
+    }
+
     private void startQueueListen() {
         Thread thread = new Thread(() -> {
+            long sequence = 0;
+            long sampleReceived = 0;
+            long sampleTime = System.nanoTime();
             while (logListenFlag) {
                 try {
-                    List<String> batch = new ArrayList<>();
-                    int batchSize = Math.min(LOG_CACHE.size(), 1000);
-                    if (batchSize == 0) {
-                        try {
-                            Thread.sleep(1000);
-                        } catch (InterruptedException e) {
-                            LOGGER.error("", e);
-                        }
-                        continue;
+                    // 按周期估算到达速率，指数加权平滑
+                    long now = System.nanoTime();
+                    if (now - sampleTime >= RATE_SAMPLE_NANOS) {
+                        long received = receivedCount.sum();
+                        double rate = (received - sampleReceived) * 1e9 / (now - sampleTime);
+                        arrivalRate = arrivalRate == 0 ? rate : arrivalRate * 0.7 + rate * 0.3;
+                        sampleReceived = received;
+                        sampleTime = now;
                     }
-                    for (int ii = 0; ii < batchSize; ii++) {
-                        String log = LOG_CACHE.poll();
-                        if (log != null) {
-                            batch.add(log);
-                        } else {
-                            break;
-                        }
+
+                    String first;
+                    try {
+                        first = LOG_CACHE.pollFirst(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException e) {
+                        LOGGER.error("", e);
+                        continue;
                     }
-                    if (batch.size() == 0) {
+                    if (first == null) {
                         continue;
                     }
 
-                    // 分组消费数据
-                    for (Map.Entry<String, Set<CacheQueueListener>> entry : listenerMap.entrySet()) {
-                        // TODO 线程池实现提高性能
-                        new Thread(() -> {
-                            // 同一group中的listener
-                            String groupId = entry.getKey();
-                            List<CacheQueueListener> listeners = new ArrayList<>(entry.getValue());
-                            int listenerIndex = 0;
-
-                            for (String log : batch) {
-                                CacheQueueListener listener = listeners.get(listenerIndex);
-                                listener.listen(log);
-                                if (listeners.size() > listenerIndex + 1) {
-                                    listenerIndex++;
-                                } else {
-                                    listenerIndex = 0;
-                                }
-                            }
-                        }).start();
+                    // 只取已到达的数据，不等待凑批
+                    int target = targetBatchSize(arrivalRate, Math.max(0, maxLingerMillis), minBatchSize, maxBatchSize);
+                    List<String> batch = new ArrayList<>(target);
+                    batch.add(first);
+                    LOG_CACHE.drainTo(batch, target - 1);
+                    MemoryBudget.Account account = this.budgetAccount;
+                    if (account != null) {
+                        long bytes = 0;
+                        for (String log : batch) {
+                            bytes += MemoryBudget.sizeOf(log);
+                        }
+                        account.release(bytes);
+                    }
+                    lastBatchSize = batch.size();
+
+                    // 分组消费数据，同一group中的listener轮流接收
+                    for (List<CacheQueueListener> listeners : listenerRegistry.snapshot().values()) {
+                        int size = listeners.size();
+                        for (int ii = 0; ii < batch.size(); ii++) {
+                            listeners.get((int) ((sequence + ii) % size)).listen(batch.get(ii));
+                        }
                     }
+                    sequence += batch.size();
 
                 } catch (Exception e) {
                     LOGGER.error("", e);
@@ -269,10 +770,25 @@ public class FileSniffer implements Closeable {
         thread.start();
     }
 
+    /**
+     * 每批最多条数：延迟目标内预计到达的条数，限制在[minBatchSize, maxBatchSize]之间
+     * @param arrivalRate 到达速率，单位条/秒
+     * @param lingerMillis 批次延迟目标，单位毫秒
+     * @param minBatchSize
+     * @param maxBatchSize
+     * @return
+     */
+    static int targetBatchSize(double arrivalRate, long lingerMillis, int minBatchSize, int maxBatchSize) {
+        int max = Math.max(1, maxBatchSize);
+        return (int) Math.min(max, Math.max(minBatchSize, (long) (arrivalRate * lingerMillis / 1000)));
+    }
+
     private void startTailer() {
         File[] files = monitorDir.listFiles(fileFilter);
         if (files != null) {
-            addAndStartTailer(Arrays.stream(files).sorted(Comparator.comparingLong(File::lastModified)).toArray(File[]::new));
+            // 压缩文件不能按行追加读取
+            addAndStartTailer(Arrays.stream(files).filter(file -> !isArchive(file))
+                    .sorted(Comparator.comparingLong(File::lastModified)).toArray(File[]::new));
         }
         // 使用过滤器：装配过滤器，生成监听者
         FileAlterationObserver observer = new FileAlterationObserver(monitorDir, fileFilter);
@@ -280,7 +796,9 @@ public class FileSniffer implements Closeable {
         observer.addListener(new FileAlterationListenerAdaptor() {
             @Override
             public void onFileCreate(File file) {
-                addAndStartTailer(file);
+                if (!isArchive(file)) {
+                    addAndStartTailer(file);
+                }
             }
         });
         // 创建文件变化监听器
@@ -293,8 +811,21 @@ public class FileSniffer implements Closeable {
         }
     }
 
+    private static boolean isArchive(File file) {
+        return file.getName().endsWith(".gz") || ArchiveCatchUp.isGzip(file);
+    }
+
     private void addAndStartTailer(File... files) {
         for (File file : files) {
+            TimestampMerger.Source source = timestampMerger != null ? timestampMerger.source(file) : null;
+            LivePosition position = null;
+            if (timestampIndexer != null) {
+                timestampIndexer.add(file);
+                // Tailer从当前文件末尾开始读取
+                position = new LivePosition(file.length());
+                livePositions.put(file, position);
+            }
+            LivePosition livePosition = position;
             Tailer tailer = new Tailer(file, new TailerListenerAdapter() {
                 @Override
                 public void fileNotFound() {
@@ -309,7 +840,18 @@ public class FileSniffer implements Closeable {
                 @Override
                 public void handle(String line) {
                     //增加的文件的内容
-                    LOG_CACHE.add(line);
+                    receivedCount.increment();
+                    if (livePosition != null) {
+                        long ts = timestampExtractor.extract(line);
+                        if (ts >= 0) {
+                            livePosition.timestamp = ts;
+                        }
+                    }
+                    if (source != null) {
+                        source.add(line);
+                    } else {
+                        offerLive(line);
+                    }
                     super.handle(line);
                 }
                 @Override
@@ -342,6 +884,13 @@ public class FileSniffer implements Closeable {
                                 continue;
                             }
                             take.stop();
+                            if (timestampMerger != null) {
+                                timestampMerger.finish(take.getFile());
+                            }
+                            if (timestampIndexer != null) {
+                                timestampIndexer.remove(take.getFile());
+                                livePositions.remove(take.getFile());
+                            }
                             LOGGER.info("Tailer list size is bigger than {}, Auto stop tailer: {}", maxTailerSize, take.getFile());
                         }
                     } else {
@@ -364,6 +913,26 @@ public class FileSniffer implements Closeable {
      * 启动FileSniffer
      */
     public void start() {
+        synchronized (this) {
+            started = true;
+        }
+        if (mergeByTimestamp) {
+            if (timestampExtractor == null) {
+                throw new IllegalStateException("TimestampExtractor is required when mergeByTimestamp is enabled");
+            }
+            timestampMerger = new TimestampMerger(timestampExtractor, reorderWindowMillis, cacheQueueSize, memoryBudget, this::offerLive);
+            timestampMerger.start();
+        }
+        if (indexDir != null) {
+            if (timestampExtractor == null) {
+                throw new IllegalStateException("TimestampExtractor is required when indexDir is set");
+            }
+            timestampIndexer = new TimestampIndexer(indexDir, indexIntervalBytes, timestampExtractor);
+            timestampIndexer.start();
+        }
+        if (archiveCatchUp) {
+            startArchiveCatchUp();
+        }
         listenTailerQueue();
         startTailer();
         startQueueListen();
@@ -389,18 +958,64 @@ public class FileSniffer implements Closeable {
         for (Tailer t : tailerList) {
             t.stop();
         }
+        if (timestampMerger != null) {
+            timestampMerger.stop();
+        }
+        if (timestampIndexer != null) {
+            timestampIndexer.stop();
+        }
+        if (archiveCatchUpTask != null) {
+            archiveCatchUpTask.stop();
+        }
         logListenFlag = false;
         queueSizeCheckFlag = false;
-        for (Map.Entry<String, Set<CacheQueueListener>> entry : listenerMap.entrySet()) {
-            for (CacheQueueListener listener : entry.getValue()) {
+        // 归还缓存队列中未处理数据占用的预算，共享同一预算的其他FileSniffer可继续使用
+        MemoryBudget.Account account = this.budgetAccount;
+        if (account != null) {
+            account.close();
+        }
+        for (List<CacheQueueListener> listeners : listenerRegistry.snapshot().values()) {
+            for (CacheQueueListener listener : listeners) {
                 listener.stop();
             }
         }
     }
 
 
+    /**
+     * 单个文件的实时监听进度
+     */
+    private static final class LivePosition {
+
+        /**
+         * Tailer启动时的文件长度
+         */
+        private final long startOffset;
+
+        /**
+         * Tailer最后读到的带时间戳的行的时间戳，尚未读到时为-1
+         */
+        private volatile long timestamp = -1;
+
+        private LivePosition(long startOffset) {
+            this.startOffset = startOffset;
+        }
+    }
+
     public interface CacheQueueFullListener {
         void listen(CacheQueueFullPolicy policy, String line);
     }
 
+    /**
+     * 时间戳解析器
+     */
+    public interface TimestampExtractor {
+        /**
+         * 解析行数据中的时间戳
+         * @param line
+         * @return 毫秒时间戳，无法解析时返回-1
+         */
+        long extract(String line);
+    }
+
 }
@@ -0,0 +1,300 @@
+package com.jthinking.util.file;
+
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * 缓存内存预算，单位字节。
+ * 同一实例可在进程内多个FileSniffer及其所有CacheQueueListener之间共享，所有缓存队列中的数据合计不超过预算。
+ * 每个缓存队列在预算中注册一个账户，保证可使用的份额为预算总量除以账户数。预算不足时：
+ * 队列未超出份额，从超出份额最多的队列按该队列的策略删除数据（IGNORE_NEW删除最新，DELETE_OLD删除最旧）；
+ * 队列已超出份额，按自身策略处理：IGNORE_NEW丢弃新数据，DELETE_OLD删除本队列最旧数据。
+ * 处理慢的队列因此不能长期占用其他队列的份额
+ */
+public class MemoryBudget {
+
+    /**
+     * 每行数据固定开销估算：String对象头、数组头、队列节点
+     */
+    private static final long LINE_OVERHEAD = 64;
+
+    /**
+     * 预算总量
+     */
+    private final long capacity;
+
+    /**
+     * 已使用
+     */
+    private final AtomicLong used = new AtomicLong();
+
+    /**
+     * 已注册的队列账户
+     */
+    private final List<Account> accounts = new CopyOnWriteArrayList<>();
+
+    public MemoryBudget(long capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * 估算一行数据在缓存队列中占用的内存。按UTF-16每字符两字节计算，偏保守
+     * @param line
+     * @return
+     */
+    public static long sizeOf(String line) {
+        return LINE_OVERHEAD + 2L * line.length();
+    }
+
+    /**
+     * 申请内存
+     * @param bytes
+     * @return 预算足够时返回true
+     */
+    public boolean tryAcquire(long bytes) {
+        while (true) {
+            long current = used.get();
+            long next = current + bytes;
+            if (next > capacity) {
+                return false;
+            }
+            if (used.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * 归还内存。归还超过已申请的内存说明存在重复归还或归还了未申请的数据，抛出异常
+     * @param bytes
+     */
+    public void release(long bytes) {
+        long current = used.addAndGet(-bytes);
+        if (current < 0) {
+            used.addAndGet(bytes);
+            throw new IllegalStateException("MemoryBudget released " + bytes + " bytes but only " + (current + bytes) + " in use");
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getUsed() {
+        return used.get();
+    }
+
+    public long getAvailable() {
+        return Math.max(0, capacity - used.get());
+    }
+
+    /**
+     * 每个队列账户保证可使用的份额
+     * @return
+     */
+    public long getFairShare() {
+        int size = accounts.size();
+        return size == 0 ? capacity : capacity / size;
+    }
+
+    /**
+     * 注册队列账户
+     * @param queue 缓存队列，为null时账户只申请内存，不能被删除数据
+     * @param policy 缓存队列满时处理策略
+     * @param discarded 被丢弃和被删除数据的接收者
+     * @return
+     */
+    Account register(Deque<String> queue, Supplier<CacheQueueFullPolicy> policy, Consumer<String> discarded) {
+        Account account = new Account(queue, policy, discarded);
+        accounts.add(account);
+        return account;
+    }
+
+    /**
+     * 缓存队列是否已满，生产者据此等待，而不是触发缓存队列满时处理策略。
+     * 条数达到上限，或加入该行需要删除本队列数据时为满
+     * @param account 缓存队列的预算账户，为null时只按条数判断
+     * @param line 待加入的数据
+     * @param size 缓存队列当前条数
+     * @param maxSize 缓存队列最大条数
+     * @return
+     */
+    static boolean isFull(Account account, String line, int size, int maxSize) {
+        return size >= maxSize || (account != null && !account.hasCapacity(line));
+    }
+
+    /**
+     * 超出份额最多的其他队列
+     * @param self
+     * @param share
+     * @return 没有超出份额的其他队列时返回null
+     */
+    private Account findOverShare(Account self, long share) {
+        Account victim = null;
+        for (Account account : accounts) {
+            if (account == self || account.queue == null) {
+                continue;
+            }
+            long accountUsed = account.used.get();
+            if (accountUsed > share && (victim == null || accountUsed > victim.used.get())) {
+                victim = account;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * 从超出份额最多的其他队列中按该队列的策略删除一条数据
+     * @param self
+     * @param share
+     * @return 是否删除成功
+     */
+    private boolean evictOverShare(Account self, long share) {
+        Account victim = findOverShare(self, share);
+        if (victim == null) {
+            return false;
+        }
+        String old = victim.policy.get() == CacheQueueFullPolicy.IGNORE_NEW
+                ? victim.queue.pollLast() : victim.queue.pollFirst();
+        if (old == null) {
+            return false;
+        }
+        victim.release(old);
+        victim.discarded.accept(old);
+        return true;
+    }
+
+    /**
+     * 缓存队列在预算中的账户
+     */
+    final class Account {
+
+        private final Deque<String> queue;
+
+        private final Supplier<CacheQueueFullPolicy> policy;
+
+        private final Consumer<String> discarded;
+
+        /**
+         * 本账户已使用
+         */
+        private final AtomicLong used = new AtomicLong();
+
+        /**
+         * 是否已关闭。关闭后不再计入预算，申请总是成功，归还不做处理
+         */
+        private volatile boolean closed;
+
+        private Account(Deque<String> queue, Supplier<CacheQueueFullPolicy> policy, Consumer<String> discarded) {
+            this.queue = queue;
+            this.policy = policy;
+            this.discarded = discarded;
+        }
+
+        /**
+         * 按缓存队列满时处理策略将数据加入队列
+         * @param line
+         * @return 数据是否加入队列
+         */
+        boolean offer(String line) {
+            long size = sizeOf(line);
+            while (!acquire(size)) {
+                long share = getFairShare();
+                if (used.get() + size > share) {
+                    // 已超出份额，按自身策略处理
+                    String old = policy.get() == CacheQueueFullPolicy.DELETE_OLD ? queue.pollFirst() : null;
+                    if (old == null) {
+                        discarded.accept(line);
+                        return false;
+                    }
+                    release(old);
+                    discarded.accept(old);
+                } else if (!evictOverShare(this, share)) {
+                    discarded.accept(line);
+                    return false;
+                }
+            }
+            queue.add(line);
+            return true;
+        }
+
+        /**
+         * 加入该行是否不需要删除本队列数据：预算有剩余，或加入后不超出份额且有超出份额的其他队列可删除
+         * @param line
+         * @return
+         */
+        boolean hasCapacity(String line) {
+            if (closed) {
+                return true;
+            }
+            long size = sizeOf(line);
+            if (getAvailable() >= size) {
+                return true;
+            }
+            long share = getFairShare();
+            return used.get() + size <= share && findOverShare(this, share) != null;
+        }
+
+        /**
+         * 申请内存，不删除本账户数据。未超出份额时可以删除超出份额的其他队列数据
+         * @param bytes
+         * @return 是否申请成功
+         */
+        boolean tryAcquire(long bytes) {
+            while (!acquire(bytes)) {
+                long share = getFairShare();
+                if (used.get() + bytes > share || !evictOverShare(this, share)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private synchronized boolean acquire(long bytes) {
+            if (closed) {
+                return true;
+            }
+            if (!MemoryBudget.this.tryAcquire(bytes)) {
+                return false;
+            }
+            used.addAndGet(bytes);
+            return true;
+        }
+
+        void release(String line) {
+            release(sizeOf(line));
+        }
+
+        synchronized void release(long bytes) {
+            if (closed) {
+                return;
+            }
+            long current = used.addAndGet(-bytes);
+            if (current < 0) {
+                used.addAndGet(bytes);
+                throw new IllegalStateException("Account released " + bytes + " bytes but only " + (current + bytes) + " in use");
+            }
+            MemoryBudget.this.release(bytes);
+        }
+
+        long getUsed() {
+            return used.get();
+        }
+
+        /**
+         * 关闭账户：注销账户，不再计入份额分配，并归还本账户已使用的全部内存。缓存队列的所有者停止时调用
+         */
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            accounts.remove(this);
+            MemoryBudget.this.release(used.getAndSet(0));
+        }
+    }
+}
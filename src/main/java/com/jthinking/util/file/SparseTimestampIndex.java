@@ -0,0 +1,216 @@
+package com.jthinking.util.file;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * 稀疏时间戳索引，对应一个被监听文件。
+ * 索引文件以16字节文件头开始：被监听文件标识(long) + 保留(long)，之后为定长记录，每条记录16字节：时间戳(long) + 该行在被监听文件中的起始字节偏移(long)。
+ * 记录按偏移递增写入，时间戳保证不递减，查找时内存映射索引文件并二分查找
+ */
+final class SparseTimestampIndex implements Closeable {
+
+    /**
+     * 每条记录字节数
+     */
+    static final int ENTRY_SIZE = 16;
+
+    /**
+     * 文件头字节数
+     */
+    static final int HEADER_SIZE = 16;
+
+    private final FileChannel channel;
+
+    /**
+     * 被监听文件标识
+     */
+    private long identity;
+
+    /**
+     * 第一条记录的时间戳
+     */
+    private long firstTimestamp = Long.MIN_VALUE;
+
+    /**
+     * 第一条记录的偏移，没有记录时为-1
+     */
+    private long firstOffset = -1;
+
+    /**
+     * 最后一条记录的时间戳
+     */
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    /**
+     * 最后一条记录的偏移，没有记录时为-1
+     */
+    private long lastOffset = -1;
+
+    /**
+     * 打开索引文件，文件头中的标识与identity不一致时说明被监听文件已被替换，清空索引
+     * @param indexFile
+     * @param identity 被监听文件标识
+     * @throws IOException
+     */
+    SparseTimestampIndex(File indexFile, long identity) throws IOException {
+        this.channel = FileChannel.open(indexFile.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_SIZE || read(0).getLong() != identity) {
+            reset(identity);
+            return;
+        }
+        this.identity = identity;
+        long size = entrySize();
+        // 丢弃写了一半的记录
+        channel.truncate(HEADER_SIZE + size);
+        if (size > 0) {
+            ByteBuffer first = read(HEADER_SIZE);
+            firstTimestamp = first.getLong();
+            firstOffset = first.getLong();
+            ByteBuffer last = read(HEADER_SIZE + size - ENTRY_SIZE);
+            lastTimestamp = last.getLong();
+            lastOffset = last.getLong();
+        }
+    }
+
+    /**
+     * 追加一条记录
+     * @param timestamp
+     * @param offset
+     * @throws IOException
+     */
+    synchronized void append(long timestamp, long offset) throws IOException {
+        if (offset <= lastOffset) {
+            return;
+        }
+        long ts = Math.max(timestamp, lastTimestamp);
+        ByteBuffer entry = ByteBuffer.allocate(ENTRY_SIZE);
+        entry.putLong(ts).putLong(offset).flip();
+        long position = HEADER_SIZE + entrySize();
+        while (entry.hasRemaining()) {
+            position += channel.write(entry, position);
+        }
+        if (firstOffset < 0) {
+            firstTimestamp = ts;
+            firstOffset = offset;
+        }
+        lastTimestamp = ts;
+        lastOffset = offset;
+    }
+
+    /**
+     * 查找读取起点：最后一条时间戳小于timestamp的记录的偏移。该偏移之前的数据时间戳都小于timestamp
+     * @param timestamp
+     * @return 字节偏移，没有满足条件的记录时返回0
+     * @throws IOException
+     */
+    long floorOffset(long timestamp) throws IOException {
+        long size = entrySize();
+        if (size == 0) {
+            return 0;
+        }
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, size);
+        int low = 0;
+        int high = (int) (size / ENTRY_SIZE) - 1;
+        long offset = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (buffer.getLong(mid * ENTRY_SIZE) < timestamp) {
+                offset = buffer.getLong(mid * ENTRY_SIZE + 8);
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return offset;
+    }
+
+    /**
+     * 被监听文件标识
+     * @return
+     */
+    synchronized long getIdentity() {
+        return identity;
+    }
+
+    /**
+     * 第一条记录的偏移，没有记录时为-1
+     * @return
+     */
+    synchronized long getFirstOffset() {
+        return firstOffset;
+    }
+
+    synchronized long getFirstTimestamp() {
+        return firstTimestamp;
+    }
+
+    /**
+     * 最后一条记录的偏移，没有记录时为-1
+     * @return
+     */
+    synchronized long getLastOffset() {
+        return lastOffset;
+    }
+
+    synchronized long getLastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * 清空索引，被监听文件被截断时调用
+     * @throws IOException
+     */
+    synchronized void reset() throws IOException {
+        reset(identity);
+    }
+
+    /**
+     * 清空索引并写入新的文件标识，被监听文件被替换时调用
+     * @param identity
+     * @throws IOException
+     */
+    synchronized void reset(long identity) throws IOException {
+        channel.truncate(0);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(identity).putLong(0).flip();
+        long position = 0;
+        while (header.hasRemaining()) {
+            position += channel.write(header, position);
+        }
+        this.identity = identity;
+        firstTimestamp = Long.MIN_VALUE;
+        firstOffset = -1;
+        lastTimestamp = Long.MIN_VALUE;
+        lastOffset = -1;
+    }
+
+    /**
+     * 记录部分的字节数，不含写了一半的记录
+     * @return
+     * @throws IOException
+     */
+    private long entrySize() throws IOException {
+        return Math.max(0, channel.size() - HEADER_SIZE) / ENTRY_SIZE * ENTRY_SIZE;
+    }
+
+    private ByteBuffer read(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(ENTRY_SIZE);
+        while (buffer.hasRemaining() && channel.read(buffer, position + buffer.position()) > 0) {
+            // 读满一条记录
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,378 @@
+package com.jthinking.util.file;
+
+import org.apache.commons.io.input.BoundedInputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * 为被监听文件建立稀疏时间戳索引，并支持从指定时间点重放文件数据。
+ * 索引线程独立于Tailer按字节扫描文件，每隔indexIntervalBytes字节取下一条能解析出时间戳的行记录一次，只有这些行需要解码
+ */
+final class TimestampIndexer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimestampIndexer.class);
+
+    /**
+     * 索引文件后缀
+     */
+    private static final String INDEX_SUFFIX = ".tsidx";
+
+    /**
+     * 扫描间隔，单位毫秒
+     */
+    private static final long SCAN_INTERVAL_MILLIS = 1000;
+
+    /**
+     * 解析时间戳时最多解码的行首字节数
+     */
+    private static final int MAX_LINE_PREFIX = 8192;
+
+    /**
+     * 与Tailer一致，使用默认字符集
+     */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    private final File indexDir;
+
+    private final int indexIntervalBytes;
+
+    private final FileSniffer.TimestampExtractor timestampExtractor;
+
+    /**
+     * 被索引的文件
+     */
+    private final Map<File, IndexedFile> indexedFiles = new ConcurrentHashMap<>();
+
+    /**
+     * 已停止监听、等待索引线程关闭的文件
+     */
+    private final Queue<IndexedFile> removedFiles = new ConcurrentLinkedQueue<>();
+
+    private volatile boolean indexFlag = true;
+
+    TimestampIndexer(File indexDir, int indexIntervalBytes, FileSniffer.TimestampExtractor timestampExtractor) {
+        this.indexDir = indexDir;
+        this.indexIntervalBytes = indexIntervalBytes;
+        this.timestampExtractor = timestampExtractor;
+    }
+
+    /**
+     * 添加需要索引的文件
+     * @param file
+     */
+    void add(File file) {
+        indexedFiles.computeIfAbsent(file, f -> {
+            if (!indexDir.exists() && !indexDir.mkdirs()) {
+                LOGGER.error("Create index dir failed: {}", indexDir);
+                return null;
+            }
+            SparseTimestampIndex index = null;
+            try {
+                index = new SparseTimestampIndex(new File(indexDir, f.getName() + INDEX_SUFFIX), identity(f));
+                return new IndexedFile(f, index);
+            } catch (IOException e) {
+                LOGGER.error("Open timestamp index failed: {}", f, e);
+                if (index != null) {
+                    try {
+                        index.close();
+                    } catch (IOException ex) {
+                        LOGGER.error("", ex);
+                    }
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * 文件标识，文件被替换（如轮转后新建同名文件）时改变。优先使用fileKey（如inode），不支持时使用创建时间
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static long identity(File file) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        Object fileKey = attributes.fileKey();
+        if (fileKey != null) {
+            return fileKey.toString().hashCode();
+        }
+        return attributes.creationTime().toMillis();
+    }
+
+    /**
+     * 文件停止监听，不再索引和重放。索引文件保留，再次监听同一文件时从最后一条记录处继续
+     * @param file
+     */
+    void remove(File file) {
+        IndexedFile indexedFile = indexedFiles.remove(file);
+        if (indexedFile != null) {
+            removedFiles.add(indexedFile);
+        }
+    }
+
+    /**
+     * 已索引的文件，按最后修改时间排序
+     * @return
+     */
+    File[] files() {
+        return indexedFiles.keySet().stream()
+                .sorted((a, b) -> Long.compare(a.lastModified(), b.lastModified()))
+                .toArray(File[]::new);
+    }
+
+    void start() {
+        Thread thread = new Thread(() -> {
+            while (indexFlag) {
+                scanAll();
+                try {
+                    Thread.sleep(SCAN_INTERVAL_MILLIS);
+                } catch (InterruptedException e) {
+                    LOGGER.error("", e);
+                }
+            }
+            closeRemoved();
+            for (IndexedFile indexedFile : indexedFiles.values()) {
+                close(indexedFile);
+            }
+            LOGGER.info("FileSniffer TimestampIndexer thread {} exit!", Thread.currentThread().getId());
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        indexFlag = false;
+    }
+
+    /**
+     * 关闭已停止监听的文件，再扫描所有文件一次。仅索引线程调用
+     */
+    void scanAll() {
+        closeRemoved();
+        for (IndexedFile indexedFile : indexedFiles.values()) {
+            try {
+                indexedFile.scan();
+            } catch (Exception e) {
+                LOGGER.error("", e);
+            }
+        }
+    }
+
+    private void closeRemoved() {
+        IndexedFile indexedFile;
+        while ((indexedFile = removedFiles.poll()) != null) {
+            close(indexedFile);
+        }
+    }
+
+    private void close(IndexedFile indexedFile) {
+        try {
+            indexedFile.index.close();
+        } catch (IOException e) {
+            LOGGER.error("", e);
+        }
+    }
+
+    /**
+     * 重放文件中时间戳不小于timestamp的数据，截止到调用时的文件末尾。
+     * 通过索引二分查找定位起点，只需读取起点之后的数据
+     * @param file
+     * @param timestamp
+     * @param output
+     * @throws IOException
+     */
+    void replay(File file, long timestamp, Consumer<String> output) throws IOException {
+        replay(file, timestamp, -1, Long.MAX_VALUE, output);
+    }
+
+    /**
+     * 重放文件中时间戳不小于timestamp的数据，遇到时间戳大于untilTimestamp的行时停止，最多读取到untilOffset和调用时的文件末尾
+     * @param file
+     * @param timestamp
+     * @param untilTimestamp 截止时间戳，小于0时不按时间戳截止
+     * @param untilOffset 截止字节偏移
+     * @param output
+     * @throws IOException
+     */
+    void replay(File file, long timestamp, long untilTimestamp, long untilOffset, Consumer<String> output) throws IOException {
+        IndexedFile indexedFile = indexedFiles.get(file);
+        long offset = indexedFile != null ? indexedFile.index.floorOffset(timestamp) : 0;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long end = Math.min(channel.size(), untilOffset);
+            if (offset >= end) {
+                return;
+            }
+            channel.position(offset);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new BoundedInputStream(Channels.newInputStream(channel), end - offset), CHARSET));
+            boolean started = false;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                long ts = started && untilTimestamp < 0 ? -1 : timestampExtractor.extract(line);
+                if (!started) {
+                    if (ts < 0 || ts < timestamp) {
+                        continue;
+                    }
+                    started = true;
+                }
+                if (untilTimestamp >= 0 && ts > untilTimestamp) {
+                    break;
+                }
+                output.accept(line);
+            }
+        }
+    }
+
+    /**
+     * 单个被索引文件的扫描状态，仅索引线程访问
+     */
+    private final class IndexedFile {
+
+        private final File file;
+
+        private final SparseTimestampIndex index;
+
+        /**
+         * 已扫描到的位置，总是位于行首
+         */
+        private long position;
+
+        /**
+         * 距上一条索引记录的字节数
+         */
+        private long sinceEntry;
+
+        private IndexedFile(File file, SparseTimestampIndex index) throws IOException {
+            this.file = file;
+            this.index = index;
+            long lastOffset = index.getLastOffset();
+            if (lastOffset >= 0 && !matchesFirstEntry()) {
+                // 文件标识相同但内容不同（如inode被复用、复制后截断），重建索引
+                index.reset();
+                lastOffset = -1;
+            }
+            if (lastOffset >= 0) {
+                // 从最后一条记录处继续扫描
+                this.position = lastOffset;
+                this.sinceEntry = 0;
+            } else {
+                this.position = 0;
+                this.sinceEntry = indexIntervalBytes;
+            }
+        }
+
+        /**
+         * 第一条记录处的行是否仍能解析出记录的时间戳
+         * @return
+         * @throws IOException
+         */
+        private boolean matchesFirstEntry() throws IOException {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE_PREFIX);
+                long offset = index.getFirstOffset();
+                while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+                    // 读取行首
+                }
+                ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+                for (int i = 0; i < buffer.position(); i++) {
+                    byte b = buffer.get(i);
+                    if (b == '\n') {
+                        return timestampExtractor.extract(decode(prefix)) == index.getFirstTimestamp();
+                    }
+                    prefix.write(b);
+                }
+                return buffer.position() == MAX_LINE_PREFIX
+                        && timestampExtractor.extract(decode(prefix)) == index.getFirstTimestamp();
+            }
+        }
+
+        private void scan() throws IOException {
+            if (!file.exists()) {
+                // 文件已删除，等待停止监听，保留索引
+                return;
+            }
+            long identity = identity(file);
+            long length = file.length();
+            if (identity != index.getIdentity()) {
+                // 文件被替换，重建索引
+                index.reset(identity);
+                position = 0;
+                sinceEntry = indexIntervalBytes;
+            } else if (length < position) {
+                // 文件被截断，重建索引
+                index.reset();
+                position = 0;
+                sinceEntry = indexIntervalBytes;
+            }
+            if (length == position) {
+                return;
+            }
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+                ByteArrayOutputStream prefix = new ByteArrayOutputStream();
+                long readPosition = position;
+                long lineStart = position;
+                boolean lookingForEntry = sinceEntry >= indexIntervalBytes;
+                int n;
+                while (indexFlag && (n = channel.read(buffer, readPosition)) > 0) {
+                    byte[] bytes = buffer.array();
+                    for (int i = 0; i < n; i++) {
+                        byte b = bytes[i];
+                        if (b != '\n') {
+                            if (lookingForEntry && prefix.size() < MAX_LINE_PREFIX) {
+                                prefix.write(b);
+                            }
+                            continue;
+                        }
+                        long lineEnd = readPosition + i + 1;
+                        if (lookingForEntry) {
+                            long ts = timestampExtractor.extract(decode(prefix));
+                            if (ts >= 0) {
+                                index.append(ts, lineStart);
+                                sinceEntry = 0;
+                                lookingForEntry = false;
+                            }
+                            prefix.reset();
+                        }
+                        sinceEntry += lineEnd - lineStart;
+                        if (sinceEntry >= indexIntervalBytes) {
+                            lookingForEntry = true;
+                        }
+                        lineStart = lineEnd;
+                    }
+                    readPosition += n;
+                    buffer.clear();
+                }
+                // 末尾不完整的行留到下次扫描
+                position = lineStart;
+            }
+        }
+
+        private String decode(ByteArrayOutputStream prefix) {
+            byte[] bytes = prefix.toByteArray();
+            int length = bytes.length;
+            if (length > 0 && bytes[length - 1] == '\r') {
+                length--;
+            }
+            return new String(bytes, 0, length, CHARSET);
+        }
+    }
+}
@@ -0,0 +1,290 @@
+package com.jthinking.util.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * 多文件按时间戳归并。
+ * 每个文件的数据各自缓冲，归并线程用小顶堆做k路归并，每个文件在堆中最多一条（该文件当前最早的数据）。
+ * 所有文件在堆中都有数据时直接输出堆顶；否则堆顶需落后已见最大时间戳一个乱序窗口，或在堆中等待超过乱序窗口才输出。
+ * 每个文件的缓冲按条数限制并计入内存预算，缓冲满或预算不足时该文件的Tailer线程等待
+ */
+final class TimestampMerger {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimestampMerger.class);
+
+    /**
+     * 堆为空或堆顶未到输出条件时归并线程等待时间，单位毫秒
+     */
+    private static final long IDLE_SLEEP_MILLIS = 10;
+
+    private final FileSniffer.TimestampExtractor timestampExtractor;
+
+    /**
+     * 乱序窗口，单位毫秒
+     */
+    private final long reorderWindowMillis;
+
+    /**
+     * 每个文件缓冲的最大条数
+     */
+    private final int bufferSize;
+
+    /**
+     * 缓冲在内存预算中的账户，未设置内存预算时为null
+     */
+    private final MemoryBudget.Account budgetAccount;
+
+    /**
+     * 归并结果接收者
+     */
+    private final Consumer<String> output;
+
+    /**
+     * 按文件区分的数据源，文件停止监听后移除，再次监听时创建新的数据源
+     */
+    private final Map<File, Source> sources = new ConcurrentHashMap<>();
+
+    /**
+     * 新创建、尚未被归并线程接管的数据源
+     */
+    private final ConcurrentLinkedQueue<Source> created = new ConcurrentLinkedQueue<>();
+
+    /**
+     * 相同时间戳按到达顺序输出
+     */
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile boolean mergeFlag = true;
+
+    /**
+     * @param timestampExtractor
+     * @param reorderWindowMillis 乱序窗口，单位毫秒
+     * @param bufferSize 每个文件缓冲的最大条数
+     * @param memoryBudget 内存预算，为null时只按条数限制缓冲
+     * @param output 归并结果接收者
+     */
+    TimestampMerger(FileSniffer.TimestampExtractor timestampExtractor, long reorderWindowMillis, int bufferSize,
+                    MemoryBudget memoryBudget, Consumer<String> output) {
+        this.timestampExtractor = timestampExtractor;
+        this.reorderWindowMillis = reorderWindowMillis;
+        this.bufferSize = bufferSize;
+        this.budgetAccount = memoryBudget == null ? null : memoryBudget.register(null, null, null);
+        this.output = output;
+    }
+
+    /**
+     * 获取文件对应的数据源，不存在时创建
+     * @param file
+     * @return
+     */
+    Source source(File file) {
+        return sources.computeIfAbsent(file, f -> {
+            Source source = new Source();
+            created.add(source);
+            return source;
+        });
+    }
+
+    /**
+     * 文件停止监听，移除数据源，归并线程输出完其缓冲数据后丢弃
+     * @param file
+     */
+    void finish(File file) {
+        Source source = sources.remove(file);
+        if (source != null) {
+            source.finished = true;
+        }
+    }
+
+    void start() {
+        Thread thread = new Thread(() -> {
+            PriorityQueue<Entry> heap = new PriorityQueue<>(
+                    Comparator.comparingLong((Entry e) -> e.timestamp).thenComparingLong(e -> e.sequence));
+            long windowNanos = TimeUnit.MILLISECONDS.toNanos(reorderWindowMillis);
+            long maxTimestamp = Long.MIN_VALUE;
+            // 归并中的数据源，仅归并线程访问
+            List<Source> merging = new ArrayList<>();
+            while (mergeFlag) {
+                try {
+                    Source added;
+                    while ((added = created.poll()) != null) {
+                        merging.add(added);
+                    }
+                    // 补齐堆中缺少数据的数据源
+                    int active = 0;
+                    Iterator<Source> iterator = merging.iterator();
+                    while (iterator.hasNext()) {
+                        Source source = iterator.next();
+                        if (!source.inHeap) {
+                            Entry entry = source.buffer.poll();
+                            if (entry != null) {
+                                heap.add(entry);
+                                source.inHeap = true;
+                                maxTimestamp = Math.max(maxTimestamp, entry.timestamp);
+                            } else if (source.finished) {
+                                iterator.remove();
+                                continue;
+                            }
+                        }
+                        active++;
+                    }
+
+                    boolean emitted = false;
+                    while (!heap.isEmpty()) {
+                        Entry top = heap.peek();
+                        boolean ready = heap.size() >= active
+                                || top.timestamp <= maxTimestamp - reorderWindowMillis
+                                || System.nanoTime() - top.arrival >= windowNanos;
+                        if (!ready) {
+                            break;
+                        }
+                        heap.poll();
+                        release(top.line);
+                        output.accept(top.line);
+                        emitted = true;
+                        Source source = top.source;
+                        Entry next = source.buffer.poll();
+                        if (next != null) {
+                            heap.add(next);
+                            maxTimestamp = Math.max(maxTimestamp, next.timestamp);
+                        } else {
+                            source.inHeap = false;
+                            break;
+                        }
+                    }
+
+                    if (!emitted) {
+                        try {
+                            Thread.sleep(IDLE_SLEEP_MILLIS);
+                        } catch (InterruptedException e) {
+                            LOGGER.error("", e);
+                        }
+                    }
+                } catch (Exception e) {
+                    LOGGER.error("", e);
+                }
+            }
+            LOGGER.info("FileSniffer TimestampMerger thread {} exit!", Thread.currentThread().getId());
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void stop() {
+        mergeFlag = false;
+        if (budgetAccount != null) {
+            budgetAccount.close();
+        }
+    }
+
+    /**
+     * 申请缓冲内存，预算不足时等待归并线程输出
+     * @param line
+     * @return 是否申请成功，停止归并时返回false
+     * @throws InterruptedException
+     */
+    private boolean acquire(String line) throws InterruptedException {
+        if (budgetAccount == null) {
+            return true;
+        }
+        long size = MemoryBudget.sizeOf(line);
+        while (!budgetAccount.tryAcquire(size)) {
+            if (!mergeFlag) {
+                return false;
+            }
+            Thread.sleep(IDLE_SLEEP_MILLIS);
+        }
+        return true;
+    }
+
+    private void release(String line) {
+        if (budgetAccount != null) {
+            budgetAccount.release(line);
+        }
+    }
+
+    /**
+     * 单个文件的数据源。add由该文件的Tailer线程调用
+     */
+    final class Source {
+
+        private final BlockingQueue<Entry> buffer = new LinkedBlockingQueue<>(bufferSize);
+
+        /**
+         * 该文件上一条数据的时间戳。无法解析时间戳的行（如异常堆栈）沿用上一条的时间戳，与上一条保持相邻
+         */
+        private long lastTimestamp = -1;
+
+        private volatile boolean finished;
+
+        /**
+         * 是否已有数据在堆中，仅归并线程访问
+         */
+        private boolean inHeap;
+
+        /**
+         * 加入一行数据，缓冲满或内存预算不足时等待，停止归并时丢弃
+         * @param line
+         */
+        void add(String line) {
+            long timestamp = timestampExtractor.extract(line);
+            if (timestamp < 0) {
+                timestamp = lastTimestamp >= 0 ? lastTimestamp : System.currentTimeMillis();
+            }
+            lastTimestamp = timestamp;
+            try {
+                if (!acquire(line)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                LOGGER.error("", e);
+                return;
+            }
+            Entry entry = new Entry(this, line, timestamp, System.nanoTime(), sequence.getAndIncrement());
+            try {
+                while (!buffer.offer(entry, 100, TimeUnit.MILLISECONDS)) {
+                    if (!mergeFlag) {
+                        release(line);
+                        return;
+                    }
+                }
+            } catch (InterruptedException e) {
+                release(line);
+                LOGGER.error("", e);
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        private final Source source;
+        private final String line;
+        private final long timestamp;
+        private final long arrival;
+        private final long sequence;
+
+        private Entry(Source source, String line, long timestamp, long arrival, long sequence) {
+            this.source = source;
+            this.line = line;
+            this.timestamp = timestamp;
+            this.arrival = arrival;
+            this.sequence = sequence;
+        }
+    }
+}
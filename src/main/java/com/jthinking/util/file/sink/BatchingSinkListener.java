@@ -0,0 +1,225 @@
+package com.jthinking.util.file.sink;
+
+import com.jthinking.util.file.CacheQueueListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 批量异步输出监听器基类。
+ * process将数据交给有界队列后立即返回，队列满时阻塞，由监听器缓存队列承接积压。
+ * 写线程按批取出数据后调用writeBatch写出，流式输出见GatheringSinkListener
+ */
+public abstract class BatchingSinkListener extends CacheQueueListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BatchingSinkListener.class);
+
+    /**
+     * 默认交接队列长度
+     */
+    protected static final int DEFAULT_HANDOFF_SIZE = 8192;
+
+    /**
+     * 默认批次最大条数
+     */
+    protected static final int DEFAULT_MAX_BATCH_SIZE = 4096;
+
+    /**
+     * 默认批次最长等待时间，单位毫秒
+     */
+    protected static final long DEFAULT_LINGER_MILLIS = 10;
+
+    /**
+     * 交接队列为空时写线程等待时间，单位毫秒。超时后调用onIdle
+     */
+    private static final long IDLE_POLL_MILLIS = 100;
+
+    /**
+     * 交接队列
+     */
+    private final BlockingQueue<String> handoff;
+
+    private final int maxBatchSize;
+
+    private final long lingerMillis;
+
+    private final AtomicBoolean writerStarted = new AtomicBoolean(false);
+
+    private volatile boolean writeFlag = true;
+
+    /**
+     * 写线程是否已结束写出。之后加入交接队列的数据不会再被写出
+     */
+    private volatile boolean writerDone = false;
+
+    protected BatchingSinkListener(String groupId, String listenerId) {
+        this(groupId, listenerId, DEFAULT_HANDOFF_SIZE, DEFAULT_MAX_BATCH_SIZE, DEFAULT_LINGER_MILLIS);
+    }
+
+    /**
+     * @param groupId
+     * @param listenerId
+     * @param handoffSize 交接队列长度
+     * @param maxBatchSize 批次最大条数
+     * @param lingerMillis 收到批次第一条数据后最多等待该时间凑批，单位毫秒
+     */
+    protected BatchingSinkListener(String groupId, String listenerId, int handoffSize, int maxBatchSize, long lingerMillis) {
+        super(groupId, listenerId);
+        this.handoff = new ArrayBlockingQueue<>(handoffSize);
+        this.maxBatchSize = maxBatchSize;
+        this.lingerMillis = lingerMillis;
+    }
+
+    /**
+     * 数据交给写线程。交接队列中的数据计入监听器的内存预算，交接队列满或预算不足时等待；
+     * 停止后无法写出的数据交给缓存队列满时处理策略监听器，不会静默丢失
+     * @param newLine
+     */
+    @Override
+    public void process(String newLine) {
+        if (writerStarted.compareAndSet(false, true)) {
+            startWriter();
+        }
+        try {
+            while (!tryAcquireBudget(newLine)) {
+                if (writerDone) {
+                    discard(newLine);
+                    return;
+                }
+                Thread.sleep(10);
+            }
+            while (!handoff.offer(newLine, 100, TimeUnit.MILLISECONDS)) {
+                if (writerDone) {
+                    releaseBudget(newLine);
+                    discard(newLine);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            releaseBudget(newLine);
+            discard(newLine);
+            LOGGER.error("", e);
+            return;
+        }
+        if (writerDone && handoff.remove(newLine)) {
+            // 写线程已结束最后一次写出
+            releaseBudget(newLine);
+            discard(newLine);
+        }
+    }
+
+    /**
+     * 停止监听，写线程写出交接队列中剩余数据后关闭输出
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        writeFlag = false;
+        if (writerStarted.compareAndSet(false, true)) {
+            writerDone = true;
+            closeQuietly();
+        }
+    }
+
+    private void startWriter() {
+        Thread thread = new Thread(() -> {
+            List<String> batch = new ArrayList<>(maxBatchSize);
+            while (writeFlag || !handoff.isEmpty()) {
+                try {
+                    String first = handoff.poll(IDLE_POLL_MILLIS, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        onIdle();
+                        continue;
+                    }
+                    batch.add(first);
+                    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+                    while (batch.size() < maxBatchSize) {
+                        if (handoff.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                            continue;
+                        }
+                        long remaining = deadline - System.nanoTime();
+                        if (remaining <= 0 || !writeFlag) {
+                            break;
+                        }
+                        String line = handoff.poll(remaining, TimeUnit.NANOSECONDS);
+                        if (line == null) {
+                            break;
+                        }
+                        batch.add(line);
+                    }
+                    writeAndRelease(batch);
+                } catch (Exception e) {
+                    LOGGER.error("", e);
+                } finally {
+                    batch.clear();
+                }
+            }
+            // 先标记结束，再写出退出循环后才加入的数据；此后加入的数据由process转交处理
+            writerDone = true;
+            handoff.drainTo(batch);
+            if (!batch.isEmpty()) {
+                writeAndRelease(batch);
+                batch.clear();
+            }
+            closeQuietly();
+            LOGGER.info("Sink writer thread {} exit!", Thread.currentThread().getId());
+        });
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void writeAndRelease(List<String> batch) {
+        try {
+            writeBatch(batch);
+            afterBatch();
+        } catch (IOException e) {
+            LOGGER.error("Sink {}/{} write failed, lines lost: {}", getGroupId(), getListenerId(), batch.size(), e);
+        } finally {
+            for (String line : batch) {
+                releaseBudget(line);
+            }
+        }
+    }
+
+    private void closeQuietly() {
+        try {
+            closeSink();
+        } catch (IOException e) {
+            LOGGER.error("", e);
+        }
+    }
+
+    /**
+     * 写出一批数据，仅写线程调用
+     * @param lines
+     * @throws IOException
+     */
+    protected abstract void writeBatch(List<String> lines) throws IOException;
+
+    /**
+     * 每批数据写出后调用，如刷盘、滚动文件
+     * @throws IOException
+     */
+    protected void afterBatch() throws IOException {
+    }
+
+    /**
+     * 交接队列空闲时定期调用，如按时间刷盘、滚动文件
+     * @throws IOException
+     */
+    protected void onIdle() throws IOException {
+    }
+
+    /**
+     * 关闭输出，写线程退出时调用
+     * @throws IOException
+     */
+    protected abstract void closeSink() throws IOException;
+}
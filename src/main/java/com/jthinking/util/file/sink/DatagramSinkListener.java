@@ -0,0 +1,134 @@
+package com.jthinking.util.file.sink;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 通过UDP输出到远程收集端。多行数据以换行符分隔打包进一个数据报，单行不跨数据报，超过数据报大小的行被截断
+ */
+public class DatagramSinkListener extends BatchingSinkListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DatagramSinkListener.class);
+
+    /**
+     * 默认数据报最大字节数，不超过常见MTU，避免IP分片
+     */
+    private static final int DEFAULT_MAX_DATAGRAM_SIZE = 1400;
+
+    private final InetSocketAddress address;
+
+    private final ByteBuffer datagram;
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private DatagramChannel channel;
+
+    public DatagramSinkListener(String groupId, String listenerId, String host, int port) {
+        this(groupId, listenerId, host, port, DEFAULT_MAX_DATAGRAM_SIZE);
+    }
+
+    /**
+     * @param groupId
+     * @param listenerId
+     * @param host
+     * @param port
+     * @param maxDatagramSize 数据报最大字节数，不超过65507
+     */
+    public DatagramSinkListener(String groupId, String listenerId, String host, int port, int maxDatagramSize) {
+        this(groupId, listenerId, host, port, DEFAULT_HANDOFF_SIZE, DEFAULT_MAX_BATCH_SIZE, DEFAULT_LINGER_MILLIS, maxDatagramSize);
+    }
+
+    public DatagramSinkListener(String groupId, String listenerId, String host, int port, int handoffSize, int maxBatchSize, long lingerMillis) {
+        this(groupId, listenerId, host, port, handoffSize, maxBatchSize, lingerMillis, DEFAULT_MAX_DATAGRAM_SIZE);
+    }
+
+    /**
+     * @param groupId
+     * @param listenerId
+     * @param host
+     * @param port
+     * @param handoffSize 交接队列长度
+     * @param maxBatchSize 批次最大条数
+     * @param lingerMillis 收到批次第一条数据后最多等待该时间凑批，单位毫秒
+     * @param maxDatagramSize 数据报最大字节数，不超过65507
+     */
+    public DatagramSinkListener(String groupId, String listenerId, String host, int port, int handoffSize, int maxBatchSize, long lingerMillis, int maxDatagramSize) {
+        super(groupId, listenerId, handoffSize, maxBatchSize, lingerMillis);
+        this.address = new InetSocketAddress(host, port);
+        this.datagram = ByteBuffer.allocateDirect(maxDatagramSize);
+    }
+
+    /**
+     * 逐行直接编码到数据报缓冲区，预留换行符的位置。放不下时先发出已打包的行；单行超过数据报大小时，
+     * 编码器在完整字符处停止，截断不会拆开多字节字符
+     * @param lines
+     * @throws IOException
+     */
+    @Override
+    protected void writeBatch(List<String> lines) throws IOException {
+        datagram.clear();
+        for (String line : lines) {
+            if (datagram.remaining() <= 1) {
+                // 已写满或只剩换行符的位置，先发出
+                send();
+            }
+            CharBuffer chars = CharBuffer.wrap(line);
+            int start = datagram.position();
+            datagram.limit(datagram.capacity() - 1);
+            boolean overflow = encode(chars).isOverflow();
+            if (overflow && start > 0) {
+                // 放不下，先发出之前的行，本行从新数据报开始
+                datagram.position(start);
+                send();
+                chars.rewind();
+                datagram.limit(datagram.capacity() - 1);
+                overflow = encode(chars).isOverflow();
+            }
+            if (overflow) {
+                LOGGER.warn("Line longer than datagram size {}, truncated", datagram.capacity());
+            }
+            datagram.limit(datagram.capacity());
+            datagram.put((byte) '\n');
+        }
+        if (datagram.position() > 0) {
+            send();
+        }
+    }
+
+    private CoderResult encode(CharBuffer chars) {
+        encoder.reset();
+        CoderResult result = encoder.encode(chars, datagram, true);
+        return result.isOverflow() ? result : encoder.flush(datagram);
+    }
+
+    private void send() throws IOException {
+        if (channel == null) {
+            channel = DatagramChannel.open();
+            channel.connect(address);
+        }
+        datagram.flip();
+        channel.write(datagram);
+        datagram.clear();
+    }
+
+    @Override
+    protected void closeSink() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+        }
+    }
+}
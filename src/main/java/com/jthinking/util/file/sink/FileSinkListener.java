@@ -0,0 +1,184 @@
+package com.jthinking.util.file.sink;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * 输出到本地文件，支持按大小和时间滚动。
+ * 刷盘采用组提交：一批数据写出后最多调用一次force，而不是每行一次
+ */
+public class FileSinkListener extends GatheringSinkListener {
+
+    /**
+     * 默认单个文件最大字节数
+     */
+    private static final long DEFAULT_MAX_FILE_BYTES = 256L * 1024 * 1024;
+
+    private final File file;
+
+    /**
+     * 单个文件最大字节数，超过后滚动。小于等于0时不按大小滚动
+     */
+    private volatile long maxFileBytes = DEFAULT_MAX_FILE_BYTES;
+
+    /**
+     * 滚动间隔，单位毫秒。小于等于0时不按时间滚动
+     */
+    private volatile long rollIntervalMillis = 0;
+
+    /**
+     * 刷盘间隔，单位毫秒。0表示每批数据写出后刷盘，小于0表示不主动刷盘
+     */
+    private volatile long fsyncIntervalMillis = 0;
+
+    private FileChannel channel;
+
+    /**
+     * 当前文件已写字节数
+     */
+    private long fileBytes;
+
+    /**
+     * 当前文件打开时间
+     */
+    private long openTime;
+
+    /**
+     * 上次刷盘时间
+     */
+    private long lastFsyncTime;
+
+    /**
+     * 是否有未刷盘的数据
+     */
+    private boolean dirty;
+
+    public FileSinkListener(String groupId, String listenerId, File file) {
+        super(groupId, listenerId);
+        this.file = file;
+    }
+
+    public FileSinkListener(String groupId, String listenerId, File file, int handoffSize, int maxBatchSize, long lingerMillis) {
+        super(groupId, listenerId, handoffSize, maxBatchSize, lingerMillis);
+        this.file = file;
+    }
+
+    @Override
+    protected void write(ByteBuffer[] buffers, int length) throws IOException {
+        if (channel == null) {
+            open();
+        }
+        fileBytes += writeFully(channel, buffers, length);
+        dirty = true;
+    }
+
+    @Override
+    protected void afterBatch() throws IOException {
+        long now = System.currentTimeMillis();
+        long interval = fsyncIntervalMillis;
+        if (interval >= 0 && now - lastFsyncTime >= interval) {
+            fsync(now);
+        }
+        rollIfNeeded(now);
+    }
+
+    @Override
+    protected void onIdle() throws IOException {
+        afterBatch();
+    }
+
+    @Override
+    protected void closeSink() throws IOException {
+        if (channel != null) {
+            fsync(System.currentTimeMillis());
+            channel.close();
+            channel = null;
+        }
+    }
+
+    private void open() throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Create dir failed: " + parent);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+        openTime = System.currentTimeMillis();
+        lastFsyncTime = openTime;
+    }
+
+    private void fsync(long now) throws IOException {
+        if (channel != null && dirty) {
+            channel.force(false);
+            dirty = false;
+        }
+        lastFsyncTime = now;
+    }
+
+    private void rollIfNeeded(long now) throws IOException {
+        if (channel == null || fileBytes == 0) {
+            return;
+        }
+        long maxBytes = maxFileBytes;
+        long interval = rollIntervalMillis;
+        boolean bySize = maxBytes > 0 && fileBytes >= maxBytes;
+        boolean byTime = interval > 0 && now - openTime >= interval;
+        if (!bySize && !byTime) {
+            return;
+        }
+        closeSink();
+        String suffix = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date(now));
+        File rolled = new File(file.getPath() + "." + suffix);
+        for (int i = 1; rolled.exists(); i++) {
+            rolled = new File(file.getPath() + "." + suffix + "." + i);
+        }
+        Files.move(file.toPath(), rolled.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getMaxFileBytes() {
+        return maxFileBytes;
+    }
+
+    /**
+     * 设置单个文件最大字节数，默认256MB，小于等于0时不按大小滚动
+     * @param maxFileBytes
+     */
+    public void setMaxFileBytes(long maxFileBytes) {
+        this.maxFileBytes = maxFileBytes;
+    }
+
+    public long getRollIntervalMillis() {
+        return rollIntervalMillis;
+    }
+
+    /**
+     * 设置滚动间隔，单位毫秒，默认0不按时间滚动
+     * @param rollIntervalMillis
+     */
+    public void setRollIntervalMillis(long rollIntervalMillis) {
+        this.rollIntervalMillis = rollIntervalMillis;
+    }
+
+    public long getFsyncIntervalMillis() {
+        return fsyncIntervalMillis;
+    }
+
+    /**
+     * 设置刷盘间隔，单位毫秒。默认0，每批数据写出后刷盘一次；大于0时最多每隔该时间刷盘一次；小于0时不主动刷盘
+     * @param fsyncIntervalMillis
+     */
+    public void setFsyncIntervalMillis(long fsyncIntervalMillis) {
+        this.fsyncIntervalMillis = fsyncIntervalMillis;
+    }
+}
@@ -0,0 +1,136 @@
+package com.jthinking.util.file.sink;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * 流式输出监听器基类。
+ * 一批数据UTF-8编码到一组直接内存缓冲区，每行以换行符结尾，再用一次聚集写（gathering write）写出，避免每行一次系统调用
+ */
+public abstract class GatheringSinkListener extends BatchingSinkListener {
+
+    /**
+     * 单个直接内存缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 直接内存缓冲区个数，一次聚集写最多写出BUFFER_SIZE * BUFFER_COUNT字节
+     */
+    private static final int BUFFER_COUNT = 16;
+
+    private static final byte[] LINE_SEPARATOR = "\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * 直接内存缓冲区，首次写出时分配，仅写线程访问
+     */
+    private final ByteBuffer[] buffers = new ByteBuffer[BUFFER_COUNT];
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    /**
+     * 当前写入的缓冲区下标
+     */
+    private int bufferIndex;
+
+    protected GatheringSinkListener(String groupId, String listenerId) {
+        super(groupId, listenerId);
+    }
+
+    protected GatheringSinkListener(String groupId, String listenerId, int handoffSize, int maxBatchSize, long lingerMillis) {
+        super(groupId, listenerId, handoffSize, maxBatchSize, lingerMillis);
+    }
+
+    /**
+     * 编码一批数据并聚集写出，每行以换行符结尾。缓冲区写满时先写出再继续编码
+     * @param lines
+     * @throws IOException
+     */
+    @Override
+    protected final void writeBatch(List<String> lines) throws IOException {
+        if (buffers[0] == null) {
+            for (int i = 0; i < BUFFER_COUNT; i++) {
+                buffers[i] = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            }
+        }
+        bufferIndex = 0;
+        buffers[0].clear();
+        for (String line : lines) {
+            CharBuffer chars = CharBuffer.wrap(line);
+            encoder.reset();
+            while (true) {
+                CoderResult result = encoder.encode(chars, buffers[bufferIndex], true);
+                if (result.isOverflow()) {
+                    nextBuffer();
+                    continue;
+                }
+                break;
+            }
+            while (encoder.flush(buffers[bufferIndex]).isOverflow()) {
+                nextBuffer();
+            }
+            if (buffers[bufferIndex].remaining() < LINE_SEPARATOR.length) {
+                nextBuffer();
+            }
+            buffers[bufferIndex].put(LINE_SEPARATOR);
+        }
+        flushBuffers(bufferIndex + 1);
+    }
+
+    private void nextBuffer() throws IOException {
+        if (bufferIndex + 1 == BUFFER_COUNT) {
+            flushBuffers(BUFFER_COUNT);
+            bufferIndex = 0;
+        } else {
+            bufferIndex++;
+        }
+        buffers[bufferIndex].clear();
+    }
+
+    private void flushBuffers(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            buffers[i].flip();
+        }
+        write(buffers, count);
+        for (int i = 0; i < count; i++) {
+            buffers[i].clear();
+        }
+    }
+
+    /**
+     * 写出所有缓冲区中的剩余数据
+     * @param channel
+     * @param buffers
+     * @param length
+     * @return 写出的字节数
+     * @throws IOException
+     */
+    protected static long writeFully(GatheringByteChannel channel, ByteBuffer[] buffers, int length) throws IOException {
+        long total = 0;
+        for (int i = 0; i < length; i++) {
+            total += buffers[i].remaining();
+        }
+        long written = 0;
+        while (written < total) {
+            written += channel.write(buffers, 0, length);
+        }
+        return written;
+    }
+
+    /**
+     * 写出缓冲区buffers[0, length)中的数据，缓冲区已处于读模式
+     * @param buffers
+     * @param length
+     * @throws IOException
+     */
+    protected abstract void write(ByteBuffer[] buffers, int length) throws IOException;
+}
@@ -0,0 +1,50 @@
+package com.jthinking.util.file.sink;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * 通过TCP输出到远程收集端，每行以换行符分隔。连接断开后下一批数据写出时重连
+ */
+public class SocketSinkListener extends GatheringSinkListener {
+
+    private final InetSocketAddress address;
+
+    private SocketChannel channel;
+
+    public SocketSinkListener(String groupId, String listenerId, String host, int port) {
+        super(groupId, listenerId);
+        this.address = new InetSocketAddress(host, port);
+    }
+
+    public SocketSinkListener(String groupId, String listenerId, String host, int port, int handoffSize, int maxBatchSize, long lingerMillis) {
+        super(groupId, listenerId, handoffSize, maxBatchSize, lingerMillis);
+        this.address = new InetSocketAddress(host, port);
+    }
+
+    @Override
+    protected void write(ByteBuffer[] buffers, int length) throws IOException {
+        if (channel == null) {
+            channel = SocketChannel.open(address);
+        }
+        try {
+            writeFully(channel, buffers, length);
+        } catch (IOException e) {
+            closeSink();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void closeSink() throws IOException {
+        if (channel != null) {
+            try {
+                channel.close();
+            } finally {
+                channel = null;
+            }
+        }
+    }
+}
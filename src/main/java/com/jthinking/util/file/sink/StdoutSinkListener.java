@@ -0,0 +1,33 @@
+package com.jthinking.util.file.sink;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * 输出到标准输出，如供sidecar进程读取。直接写文件描述符，不经过System.out的逐行同步
+ */
+public class StdoutSinkListener extends GatheringSinkListener {
+
+    private final FileChannel channel = new FileOutputStream(FileDescriptor.out).getChannel();
+
+    public StdoutSinkListener(String groupId, String listenerId) {
+        super(groupId, listenerId);
+    }
+
+    public StdoutSinkListener(String groupId, String listenerId, int handoffSize, int maxBatchSize, long lingerMillis) {
+        super(groupId, listenerId, handoffSize, maxBatchSize, lingerMillis);
+    }
+
+    @Override
+    protected void write(ByteBuffer[] buffers, int length) throws IOException {
+        writeFully(channel, buffers, length);
+    }
+
+    @Override
+    protected void closeSink() {
+        // 标准输出不关闭
+    }
+}
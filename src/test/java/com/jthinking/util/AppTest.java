@@ -3,18 +3,30 @@ package com.jthinking.util;
 import com.jthinking.util.file.CacheQueueFullPolicy;
 import com.jthinking.util.file.CacheQueueListener;
 import com.jthinking.util.file.FileSniffer;
+import com.jthinking.util.file.MemoryBudget;
+import com.jthinking.util.file.sink.DatagramSinkListener;
+import com.jthinking.util.file.sink.FileSinkListener;
 import org.apache.commons.io.filefilter.WildcardFileFilter;
 import org.apache.commons.io.monitor.FileAlterationListenerAdaptor;
 import org.apache.commons.io.monitor.FileAlterationMonitor;
 import org.apache.commons.io.monitor.FileAlterationObserver;
+import org.junit.Assert;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileFilter;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -257,4 +269,86 @@ public class AppTest {
     }
 
 
+    @Test
+    public void testFileSinkListener() throws Exception {
+        File file = File.createTempFile("file-sniffer-sink", ".log");
+        file.deleteOnExit();
+        FileSinkListener sink = new FileSinkListener("group-id-sink", "listener-id-sink", file);
+        for (int i = 0; i < 10000; i++) {
+            sink.process("line-" + i);
+        }
+        sink.stop();
+
+        List<String> lines = null;
+        for (int i = 0; i < 50; i++) {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+            if (lines.size() == 10000) {
+                break;
+            }
+            Thread.sleep(100);
+        }
+        Assert.assertEquals(10000, lines.size());
+        Assert.assertEquals("line-0", lines.get(0));
+        Assert.assertEquals("line-9999", lines.get(9999));
+    }
+
+    @Test
+    public void testFileSinkListenerAfterStop() throws Exception {
+        File file = File.createTempFile("file-sniffer-sink", ".log");
+        file.deleteOnExit();
+        FileSinkListener sink = new FileSinkListener("group-id-sink", "listener-id-sink", file);
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        sink.setMemoryBudget(budget);
+        List<String> discarded = new CopyOnWriteArrayList<>();
+        sink.setCacheQueueFullListener((policy, line) -> discarded.add(line));
+        for (int i = 0; i < 1000; i++) {
+            sink.process("line-" + i);
+        }
+        sink.stop();
+        // 停止后写线程结束，无法写出的数据交给缓存队列满时处理策略监听器
+        for (int i = 0; i < 50 && Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size() < 1000; i++) {
+            Thread.sleep(100);
+        }
+        Thread.sleep(200);
+        sink.process("late");
+        Assert.assertEquals(1000, Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).size());
+        Assert.assertEquals(Arrays.asList("late"), discarded);
+        Assert.assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testDatagramSinkListenerTruncation() throws Exception {
+        // 超长行在完整字符处截断
+        Assert.assertEquals(Arrays.asList("ab\n", "中文\n"), sendDatagrams(8, 2, "ab", "中文中文"));
+        // 截断的行写满数据报后，下一行从新数据报开始
+        Assert.assertEquals(Arrays.asList("abcdefg\n", "xy\n"), sendDatagrams(8, 2, "abcdefghij", "xy"));
+    }
+
+    @Test
+    public void testDatagramSinkListenerExactFill() throws Exception {
+        Assert.assertEquals(Arrays.asList("abc\ndef\n", "g\n"), sendDatagrams(8, 2, "abc", "def", "g"));
+        // 空行不能覆盖上一行的换行符
+        Assert.assertEquals(Arrays.asList("abc\ndef\n", "\n"), sendDatagrams(8, 2, "abc", "def", ""));
+    }
+
+    private static List<String> sendDatagrams(int maxDatagramSize, int expected, String... lines) throws Exception {
+        try (DatagramSocket socket = new DatagramSocket(0, InetAddress.getLoopbackAddress())) {
+            socket.setSoTimeout(5000);
+            DatagramSinkListener sink = new DatagramSinkListener("group-id-udp", "listener-id-udp",
+                    "127.0.0.1", socket.getLocalPort(), 16, 16, 100, maxDatagramSize);
+            for (String line : lines) {
+                sink.process(line);
+            }
+            List<String> received = new ArrayList<>();
+            byte[] buffer = new byte[64];
+            while (received.size() < expected) {
+                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                socket.receive(packet);
+                received.add(new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8));
+            }
+            sink.stop();
+            return received;
+        }
+    }
+
 }
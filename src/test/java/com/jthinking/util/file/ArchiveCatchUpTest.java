@@ -0,0 +1,142 @@
+package com.jthinking.util.file;
+
+import org.apache.commons.io.filefilter.WildcardFileFilter;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+public class ArchiveCatchUpTest {
+
+    @Test
+    public void testFindArchives() throws IOException {
+        File dir = Files.createTempDirectory("file-sniffer-archive").toFile();
+        writeLines(new File(dir, "access.log"), "live");
+        File rotated2 = writeGzip(new File(dir, "access.log.2.gz"), 0, 10);
+        File rotated1 = writeGzip(new File(dir, "access.log.1.gz"), 0, 10);
+        // 被通配符匹配、内容为gzip的文件，即使没有.gz后缀
+        File matched = writeGzip(new File(dir, "access-old.log"), 0, 10);
+        // 后缀为.gz但内容不是gzip
+        writeLines(new File(dir, "access.log.3.gz"), "not gzip");
+        // 不是被匹配文件轮转生成的归档
+        writeGzip(new File(dir, "error.log.1.gz"), 0, 10);
+        long now = System.currentTimeMillis();
+        Assert.assertTrue(matched.setLastModified(now - 30000));
+        Assert.assertTrue(rotated2.setLastModified(now - 20000));
+        Assert.assertTrue(rotated1.setLastModified(now - 10000));
+
+        Assert.assertTrue(ArchiveCatchUp.isGzip(rotated1));
+        Assert.assertFalse(ArchiveCatchUp.isGzip(new File(dir, "access.log.3.gz")));
+        Assert.assertFalse(ArchiveCatchUp.isGzip(new File(dir, "missing.gz")));
+
+        File[] archives = ArchiveCatchUp.findArchives(dir, new WildcardFileFilter("access*.log"));
+        // 按最后修改时间排序
+        Assert.assertArrayEquals(new File[]{matched, rotated2, rotated1}, archives);
+    }
+
+    @Test
+    public void testOutputInFileOrder() throws IOException {
+        File dir = Files.createTempDirectory("file-sniffer-archive").toFile();
+        // 第一个归档最大，后面的归档先解压完成，输出仍按文件顺序
+        int[] sizes = {50000, 100, 20000, 1};
+        File[] archives = new File[sizes.length];
+        List<String> expected = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            archives[i] = writeGzip(new File(dir, "access.log." + i + ".gz"), from, from + sizes[i]);
+            for (int j = from; j < from + sizes[i]; j++) {
+                expected.add("line-" + j);
+            }
+            from += sizes[i];
+        }
+        List<String> output = new ArrayList<>();
+        new ArchiveCatchUp(archives, 4, output::add).run();
+        Assert.assertEquals(expected, output);
+    }
+
+    @Test
+    public void testSwitchToLiveTailing() throws Exception {
+        File dir = Files.createTempDirectory("file-sniffer-archive").toFile();
+        File live = new File(dir, "access.log");
+        writeLines(live);
+        writeGzip(new File(dir, "access.log.1.gz"), 0, 1000);
+
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> received = new CopyOnWriteArrayList<>();
+        CacheQueueListener listener = new CacheQueueListener("group-id", "listener-id") {
+            @Override
+            public void listen(String newLine) {
+                // 阻塞分发线程，一级缓存队列写满后追读暂停，保持追读状态
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.listen(newLine);
+            }
+            @Override
+            public void process(String newLine) {
+                received.add(newLine);
+            }
+        };
+        FileSniffer fs = new FileSniffer(dir.getPath() + "/access*.log");
+        fs.setCacheQueueSize(10);
+        fs.setArchiveCatchUp(true);
+        fs.addCacheQueueListener(listener);
+        fs.start();
+        try {
+            // 等待Tailer打开文件并定位到末尾后，在追读期间追加实时数据
+            Thread.sleep(1500);
+            writeLines(live, "live-0", "live-1", "live-2");
+            Thread.sleep(2000);
+            Assert.assertTrue(received.isEmpty());
+            release.countDown();
+
+            long deadline = System.currentTimeMillis() + 10000;
+            while (received.size() < 1003 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // 归档数据全部在实时数据之前，实时数据在追读期间没有丢失
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                expected.add("line-" + i);
+            }
+            expected.addAll(Arrays.asList("live-0", "live-1", "live-2"));
+            Assert.assertEquals(expected, received);
+        } finally {
+            release.countDown();
+            fs.close();
+        }
+    }
+
+    private static File writeGzip(File file, int from, int to) throws IOException {
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            for (int i = from; i < to; i++) {
+                out.write(("line-" + i + "\n").getBytes(Charset.defaultCharset()));
+            }
+        }
+        return file;
+    }
+
+    private static void writeLines(File file, String... lines) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (String line : lines) {
+            builder.append(line).append('\n');
+        }
+        Files.write(file.toPath(), builder.toString().getBytes(Charset.defaultCharset()),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,78 @@
+package com.jthinking.util.file;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CacheQueueListenerRegistryTest {
+
+    @Test
+    public void testRemoveHandsOverPendingLines() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CacheQueueListener a = new CacheQueueListener("group-id", "listener-a") {
+            @Override
+            public void process(String newLine) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        List<String> received = new CopyOnWriteArrayList<>();
+        CacheQueueListener b = new CacheQueueListener("group-id", "listener-b") {
+            @Override
+            public void process(String newLine) {
+                received.add(newLine);
+            }
+        };
+        CacheQueueListenerRegistry registry = new CacheQueueListenerRegistry();
+        registry.setWorkStealing(false);
+        Assert.assertTrue(registry.add(a));
+        Assert.assertTrue(registry.add(b));
+        CacheQueueListener duplicate = CacheQueueListener.of("group-id", "listener-a");
+        Assert.assertFalse(registry.add(duplicate));
+        duplicate.stop();
+        try {
+            int n = 100;
+            for (int i = 0; i < n; i++) {
+                a.listen("line-" + i);
+            }
+            Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+
+            // 按group-id和listener-id匹配删除，a正在处理的一条之外全部转交给b
+            CacheQueueListener handle = CacheQueueListener.of("group-id", "listener-a");
+            Assert.assertSame(a, registry.remove(handle));
+            handle.stop();
+            Assert.assertEquals(1, registry.snapshot().get("group-id").size());
+            Assert.assertSame(b, registry.snapshot().get("group-id").get(0));
+
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < n - 1 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(n - 1, received.size());
+            Assert.assertEquals("line-1", received.get(0));
+            Assert.assertEquals("line-" + (n - 1), received.get(n - 2));
+            Assert.assertNull(registry.remove(handle));
+        } finally {
+            release.countDown();
+            b.stop();
+        }
+    }
+
+    @Test
+    public void testRemoveLastListenerRemovesGroup() {
+        CacheQueueListenerRegistry registry = new CacheQueueListenerRegistry();
+        CacheQueueListener a = CacheQueueListener.of("group-id", "listener-a");
+        registry.add(a);
+        Assert.assertSame(a, registry.remove(a));
+        Assert.assertFalse(registry.snapshot().containsKey("group-id"));
+    }
+}
@@ -0,0 +1,94 @@
+package com.jthinking.util.file;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class CacheQueueListenerTest {
+
+    @Test
+    public void testIdleListenerStealsFromBlockedListener() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CacheQueueListener blocked = new CacheQueueListener("group-id", "blocked") {
+            @Override
+            public void process(String newLine) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        List<String> stolen = new CopyOnWriteArrayList<>();
+        CacheQueueListener idle = new CacheQueueListener("group-id", "idle") {
+            @Override
+            public void process(String newLine) {
+                stolen.add(newLine);
+            }
+        };
+        CacheQueueListenerRegistry registry = new CacheQueueListenerRegistry();
+        registry.add(blocked);
+        try {
+            blocked.listen("line-0");
+            Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i < 100; i++) {
+                blocked.listen("line-" + i);
+            }
+            registry.add(idle);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (stolen.size() < 99 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            // 从尾部窃取，被阻塞监听器队列中的数据全部由空闲监听器处理
+            Assert.assertEquals(99, stolen.size());
+            Assert.assertEquals("line-99", stolen.get(0));
+            Assert.assertEquals(99, idle.getStolenCount());
+            Assert.assertEquals(0, blocked.getStolenCount());
+        } finally {
+            release.countDown();
+            blocked.stop();
+            idle.stop();
+        }
+    }
+
+    @Test
+    public void testNoStealingWhenDisabled() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CacheQueueListener blocked = new CacheQueueListener("group-id", "blocked") {
+            @Override
+            public void process(String newLine) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        CacheQueueListener idle = CacheQueueListener.of("group-id", "idle");
+        CacheQueueListenerRegistry registry = new CacheQueueListenerRegistry();
+        registry.setWorkStealing(false);
+        registry.add(blocked);
+        registry.add(idle);
+        try {
+            blocked.listen("line-0");
+            Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+            for (int i = 1; i < 10; i++) {
+                blocked.listen("line-" + i);
+            }
+            Thread.sleep(300);
+            Assert.assertEquals(0, idle.getStolenCount());
+        } finally {
+            release.countDown();
+            blocked.stop();
+            idle.stop();
+        }
+    }
+}
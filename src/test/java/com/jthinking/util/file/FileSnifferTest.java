@@ -0,0 +1,26 @@
+package com.jthinking.util.file;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FileSnifferTest {
+
+    @Test
+    public void testTargetBatchSize() {
+        // 低速率时按最小批次分发
+        Assert.assertEquals(1, FileSniffer.targetBatchSize(0, 50, 1, 1000));
+        Assert.assertEquals(1, FileSniffer.targetBatchSize(10, 50, 1, 1000));
+        Assert.assertEquals(16, FileSniffer.targetBatchSize(10, 50, 16, 1000));
+        // 每批最多条数随速率增长：延迟目标内预计到达的条数
+        Assert.assertEquals(500, FileSniffer.targetBatchSize(10000, 50, 1, 1000));
+        Assert.assertEquals(100, FileSniffer.targetBatchSize(10000, 10, 1, 1000));
+        // 高速率时不超过最大批次
+        Assert.assertEquals(1000, FileSniffer.targetBatchSize(1000000, 50, 1, 1000));
+        Assert.assertEquals(1000, FileSniffer.targetBatchSize(Double.MAX_VALUE, 50, 1, 1000));
+        // 延迟目标为0时只按最小批次
+        Assert.assertEquals(1, FileSniffer.targetBatchSize(1000000, 0, 1, 1000));
+        // 最大批次优先于最小批次，且至少为1
+        Assert.assertEquals(10, FileSniffer.targetBatchSize(0, 50, 100, 10));
+        Assert.assertEquals(1, FileSniffer.targetBatchSize(1000000, 50, 1, 0));
+    }
+}
@@ -0,0 +1,280 @@
+package com.jthinking.util.file;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+public class MemoryBudgetTest {
+
+    private static final long LINE_SIZE = MemoryBudget.sizeOf("line-00");
+
+    @Test
+    public void testStalledQueueIsEvictedDeleteOld() {
+        MemoryBudget budget = new MemoryBudget(LINE_SIZE * 10);
+        Deque<String> stalled = new LinkedBlockingDeque<>();
+        Deque<String> active = new LinkedBlockingDeque<>();
+        List<String> stalledDiscarded = new ArrayList<>();
+        List<String> activeDiscarded = new ArrayList<>();
+        MemoryBudget.Account a = budget.register(stalled, () -> CacheQueueFullPolicy.DELETE_OLD, stalledDiscarded::add);
+        MemoryBudget.Account b = budget.register(active, () -> CacheQueueFullPolicy.DELETE_OLD, activeDiscarded::add);
+
+        // 停滞队列先占满整个预算
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(a.offer(String.format("line-%02d", i)));
+        }
+        Assert.assertEquals(0, budget.getAvailable());
+
+        // 未超出份额的队列从停滞队列删除最旧数据
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(b.offer(String.format("line-%02d", i)));
+        }
+        Assert.assertEquals(5, stalled.size());
+        Assert.assertEquals(5, active.size());
+        Assert.assertEquals("line-05", stalled.peekFirst());
+        Assert.assertEquals(5, stalledDiscarded.size());
+        Assert.assertEquals("line-00", stalledDiscarded.get(0));
+        Assert.assertTrue(activeDiscarded.isEmpty());
+
+        // 两个队列都用满份额后，按自身策略删除本队列最旧数据
+        Assert.assertTrue(b.offer("line-05"));
+        Assert.assertEquals(5, stalled.size());
+        Assert.assertEquals("line-01", active.peekFirst());
+        Assert.assertEquals("line-00", activeDiscarded.get(0));
+        Assert.assertEquals(LINE_SIZE * 5, a.getUsed());
+        Assert.assertEquals(LINE_SIZE * 5, b.getUsed());
+    }
+
+    @Test
+    public void testStalledQueueIsEvictedIgnoreNew() {
+        MemoryBudget budget = new MemoryBudget(LINE_SIZE * 10);
+        Deque<String> stalled = new LinkedBlockingDeque<>();
+        Deque<String> active = new LinkedBlockingDeque<>();
+        List<String> stalledDiscarded = new ArrayList<>();
+        List<String> activeDiscarded = new ArrayList<>();
+        MemoryBudget.Account a = budget.register(stalled, () -> CacheQueueFullPolicy.IGNORE_NEW, stalledDiscarded::add);
+        MemoryBudget.Account b = budget.register(active, () -> CacheQueueFullPolicy.IGNORE_NEW, activeDiscarded::add);
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertTrue(a.offer(String.format("line-%02d", i)));
+        }
+        // 预算已满且超出份额，丢弃新数据
+        Assert.assertFalse(a.offer("line-10"));
+        Assert.assertEquals("line-10", stalledDiscarded.get(0));
+
+        // 未超出份额的队列从停滞队列删除最新数据
+        for (int i = 0; i < 5; i++) {
+            Assert.assertTrue(b.offer(String.format("line-%02d", i)));
+        }
+        Assert.assertEquals(5, stalled.size());
+        Assert.assertEquals("line-00", stalled.peekFirst());
+        Assert.assertEquals("line-04", stalled.peekLast());
+        Assert.assertEquals("line-09", stalledDiscarded.get(1));
+
+        // 两个队列都用满份额后，丢弃新数据
+        Assert.assertFalse(b.offer("line-05"));
+        Assert.assertEquals(5, active.size());
+        Assert.assertEquals("line-04", active.peekLast());
+        Assert.assertEquals("line-05", activeDiscarded.get(0));
+        Assert.assertEquals(LINE_SIZE * 10, budget.getUsed());
+    }
+
+    @Test
+    public void testIsFullWithStalledQueue() {
+        MemoryBudget budget = new MemoryBudget(LINE_SIZE * 10);
+        Deque<String> stalled = new LinkedBlockingDeque<>();
+        Deque<String> active = new LinkedBlockingDeque<>();
+        MemoryBudget.Account a = budget.register(stalled, () -> CacheQueueFullPolicy.DELETE_OLD, line -> {});
+        MemoryBudget.Account b = budget.register(active, () -> CacheQueueFullPolicy.DELETE_OLD, line -> {});
+        for (int i = 0; i < 10; i++) {
+            a.offer(String.format("line-%02d", i));
+        }
+        // 预算已满，但未超出份额的队列可以删除停滞队列的数据，不应等待
+        Assert.assertFalse(MemoryBudget.isFull(b, "line-00", active.size(), 100));
+        Assert.assertTrue(MemoryBudget.isFull(a, "line-10", stalled.size(), 100));
+        for (int i = 0; i < 5; i++) {
+            b.offer(String.format("line-%02d", i));
+        }
+        Assert.assertTrue(MemoryBudget.isFull(b, "line-05", active.size(), 100));
+        // 按条数判断
+        Assert.assertTrue(MemoryBudget.isFull(null, "line-00", 100, 100));
+        Assert.assertFalse(MemoryBudget.isFull(null, "line-00", 99, 100));
+    }
+
+    @Test
+    public void testTryAcquire() {
+        MemoryBudget budget = new MemoryBudget(1024);
+        long size = MemoryBudget.sizeOf("0123456789");
+        int count = 0;
+        while (budget.tryAcquire(size)) {
+            count++;
+        }
+        Assert.assertEquals(1024 / size, count);
+        Assert.assertTrue(budget.getAvailable() < size);
+        budget.release(size);
+        Assert.assertTrue(budget.tryAcquire(size));
+    }
+
+    @Test
+    public void testCloseReleasesAndRestoresShare() {
+        MemoryBudget budget = new MemoryBudget(LINE_SIZE * 10);
+        Deque<String> queue = new LinkedBlockingDeque<>();
+        MemoryBudget.Account a = budget.register(queue, () -> CacheQueueFullPolicy.DELETE_OLD, line -> {});
+        MemoryBudget.Account b = budget.register(new LinkedBlockingDeque<>(), () -> CacheQueueFullPolicy.DELETE_OLD, line -> {});
+        Assert.assertEquals(LINE_SIZE * 5, budget.getFairShare());
+        a.offer("line-00");
+        a.offer("line-01");
+        a.close();
+        Assert.assertEquals(0, budget.getUsed());
+        Assert.assertEquals(LINE_SIZE * 10, budget.getFairShare());
+        // 关闭后不再计入预算，队列中剩余数据的归还不做处理
+        a.release(queue.pollFirst());
+        Assert.assertTrue(a.offer("line-02"));
+        Assert.assertEquals(0, budget.getUsed());
+        b.close();
+    }
+
+    @Test
+    public void testListenerStopReleasesBudget() throws Exception {
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CacheQueueListener listener = new CacheQueueListener("group-id", "listener-id") {
+            @Override
+            public void process(String newLine) {
+                entered.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        listener.setMemoryBudget(budget);
+        for (int i = 0; i < 100; i++) {
+            listener.listen(String.format("line-%02d", i));
+        }
+        Assert.assertTrue(entered.await(5, TimeUnit.SECONDS));
+        Assert.assertTrue(budget.getUsed() > 0);
+        listener.stop();
+        release.countDown();
+        Assert.assertEquals(0, budget.getUsed());
+        Assert.assertEquals(budget.getCapacity(), budget.getFairShare());
+    }
+
+    @Test
+    public void testFileSnifferCloseReleasesBudget() throws Exception {
+        File dir = Files.createTempDirectory("file-sniffer-budget").toFile();
+        File log = new File(dir, "access.log");
+        Files.write(log.toPath(), new byte[0]);
+        CountDownLatch release = new CountDownLatch(1);
+        CacheQueueListener listener = new CacheQueueListener("group-id", "listener-id") {
+            @Override
+            public void process(String newLine) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        FileSniffer fs = new FileSniffer(log.getPath());
+        fs.setMemoryBudget(budget);
+        fs.addCacheQueueListener(listener);
+        Assert.assertSame(budget, listener.getMemoryBudget());
+        fs.start();
+        try {
+            Thread.sleep(1500);
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < 100; i++) {
+                builder.append("line-").append(i).append('\n');
+            }
+            Files.write(log.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (budget.getUsed() == 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            Assert.assertTrue(budget.getUsed() > 0);
+        } finally {
+            fs.close();
+            release.countDown();
+        }
+        Assert.assertEquals(0, budget.getUsed());
+        Assert.assertEquals(budget.getCapacity(), budget.getFairShare());
+    }
+
+    @Test
+    public void testAddDuplicateListenerDoesNotRegister() {
+        MemoryBudget budget = new MemoryBudget(LINE_SIZE * 10);
+        FileSniffer fs = new FileSniffer("access.log");
+        fs.setMemoryBudget(budget);
+        CacheQueueListener a = CacheQueueListener.of("group-id", "listener-id");
+        CacheQueueListener duplicate = CacheQueueListener.of("group-id", "listener-id");
+        fs.addCacheQueueListener(a);
+        fs.addCacheQueueListener(duplicate);
+        Assert.assertSame(budget, a.getMemoryBudget());
+        Assert.assertNull(duplicate.getMemoryBudget());
+        // FileSniffer和a各一个账户
+        Assert.assertEquals(LINE_SIZE * 5, budget.getFairShare());
+
+        // 已接收过数据的监听器不共享预算
+        CacheQueueListener used = CacheQueueListener.of("group-id", "used");
+        used.listen("line-00");
+        fs.addCacheQueueListener(used);
+        Assert.assertNull(used.getMemoryBudget());
+
+        // 已停止的监听器不能再次注册
+        fs.deleteCacheQueueListener(a);
+        try {
+            fs.addCacheQueueListener(a);
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(LINE_SIZE * 10, budget.getFairShare());
+        }
+        duplicate.stop();
+        used.stop();
+    }
+
+    @Test
+    public void testReleaseMoreThanAcquiredFails() {
+        MemoryBudget budget = new MemoryBudget(LINE_SIZE * 10);
+        Deque<String> queue = new LinkedBlockingDeque<>();
+        MemoryBudget.Account account = budget.register(queue, () -> CacheQueueFullPolicy.DELETE_OLD, line -> {});
+        account.offer("line-00");
+        account.release(queue.pollFirst());
+        try {
+            account.release("line-00");
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            Assert.assertEquals(0, account.getUsed());
+            Assert.assertEquals(0, budget.getUsed());
+        }
+    }
+
+    @Test
+    public void testSetMemoryBudgetAfterReceiveFails() {
+        CacheQueueListener listener = new CacheQueueListener("group-id", "listener-id") {
+            @Override
+            public void process(String newLine) {
+            }
+        };
+        listener.setMemoryBudget(new MemoryBudget(LINE_SIZE * 10));
+        listener.listen("line-00");
+        try {
+            listener.setMemoryBudget(new MemoryBudget(LINE_SIZE * 10));
+            Assert.fail();
+        } catch (IllegalStateException e) {
+            listener.stop();
+        }
+    }
+}
@@ -0,0 +1,227 @@
+package com.jthinking.util.file;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+public class SparseTimestampIndexTest {
+
+    /**
+     * 行首数字为时间戳，没有时返回-1
+     */
+    private static final FileSniffer.TimestampExtractor EXTRACTOR = line -> {
+        int end = line.indexOf(' ');
+        try {
+            return Long.parseLong(end < 0 ? line : line.substring(0, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    };
+
+    @Test
+    public void testFloorOffset() throws IOException {
+        File file = File.createTempFile("file-sniffer-index", ".tsidx");
+        file.deleteOnExit();
+        try (SparseTimestampIndex index = new SparseTimestampIndex(file, 1)) {
+            Assert.assertEquals(0, index.floorOffset(1000));
+            index.append(1000, 0);
+            index.append(2000, 100);
+            index.append(2000, 200);
+            index.append(3000, 300);
+            // 时间戳回退时按上一条记录的时间戳保存
+            index.append(2500, 400);
+            Assert.assertEquals(0, index.floorOffset(500));
+            Assert.assertEquals(0, index.floorOffset(1000));
+            Assert.assertEquals(0, index.floorOffset(2000));
+            Assert.assertEquals(200, index.floorOffset(2500));
+            Assert.assertEquals(200, index.floorOffset(3000));
+            Assert.assertEquals(400, index.floorOffset(3001));
+            Assert.assertEquals(3000, index.getLastTimestamp());
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        File file = File.createTempFile("file-sniffer-index", ".tsidx");
+        file.deleteOnExit();
+        try (SparseTimestampIndex index = new SparseTimestampIndex(file, 1)) {
+            index.append(1000, 0);
+            index.append(2000, 100);
+        }
+        // 模拟写了一半的记录
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(raf.length());
+            raf.writeLong(3000);
+        }
+        try (SparseTimestampIndex index = new SparseTimestampIndex(file, 1)) {
+            Assert.assertEquals(SparseTimestampIndex.HEADER_SIZE + 2 * SparseTimestampIndex.ENTRY_SIZE, file.length());
+            Assert.assertEquals(100, index.getLastOffset());
+            Assert.assertEquals(2000, index.getLastTimestamp());
+            // 已有偏移不重复记录
+            index.append(2000, 100);
+            index.append(3000, 200);
+            Assert.assertEquals(SparseTimestampIndex.HEADER_SIZE + 3 * SparseTimestampIndex.ENTRY_SIZE, file.length());
+            Assert.assertEquals(100, index.floorOffset(3000));
+        }
+    }
+
+    @Test
+    public void testIdentityMismatch() throws IOException {
+        File file = File.createTempFile("file-sniffer-index", ".tsidx");
+        file.deleteOnExit();
+        try (SparseTimestampIndex index = new SparseTimestampIndex(file, 1)) {
+            index.append(1000, 0);
+            index.append(2000, 100);
+            Assert.assertEquals(0, index.getFirstOffset());
+            Assert.assertEquals(1000, index.getFirstTimestamp());
+        }
+        // 被监听文件已被替换，清空索引
+        try (SparseTimestampIndex index = new SparseTimestampIndex(file, 2)) {
+            Assert.assertEquals(SparseTimestampIndex.HEADER_SIZE, file.length());
+            Assert.assertEquals(-1, index.getLastOffset());
+            Assert.assertEquals(-1, index.getFirstOffset());
+            Assert.assertEquals(0, index.floorOffset(3000));
+            index.append(5000, 0);
+        }
+        try (SparseTimestampIndex index = new SparseTimestampIndex(file, 2)) {
+            Assert.assertEquals(2, index.getIdentity());
+            Assert.assertEquals(5000, index.getFirstTimestamp());
+            Assert.assertEquals(0, index.getLastOffset());
+        }
+    }
+
+    @Test
+    public void testIndexerResumeAfterRestart() throws IOException {
+        File dir = Files.createTempDirectory("file-sniffer-index").toFile();
+        File indexDir = new File(dir, "index");
+        File log = new File(dir, "access.log");
+        writeLines(log, 0, 100);
+        File indexFile = new File(indexDir, log.getName() + ".tsidx");
+
+        TimestampIndexer indexer = new TimestampIndexer(indexDir, 256, EXTRACTOR);
+        indexer.add(log);
+        indexer.scanAll();
+        long entries = entries(indexFile);
+        Assert.assertTrue(entries > 1);
+        indexer.remove(log);
+        indexer.scanAll();
+
+        // 重启后从最后一条记录处继续，不重复记录
+        indexer = new TimestampIndexer(indexDir, 256, EXTRACTOR);
+        indexer.add(log);
+        indexer.scanAll();
+        Assert.assertEquals(entries, entries(indexFile));
+
+        writeLines(log, 100, 200);
+        indexer.scanAll();
+        Assert.assertTrue(entries(indexFile) > entries);
+
+        List<String> replayed = new ArrayList<>();
+        indexer.replay(log, 150, replayed::add);
+        Assert.assertEquals(50, replayed.size());
+        Assert.assertTrue(replayed.get(0).startsWith("150 "));
+
+        // 文件删除后保留索引
+        long length = indexFile.length();
+        Assert.assertTrue(log.delete());
+        indexer.scanAll();
+        Assert.assertEquals(length, indexFile.length());
+        indexer.remove(log);
+        indexer.scanAll();
+    }
+
+    @Test
+    public void testIndexerResetsReplacedFile() throws IOException {
+        File dir = Files.createTempDirectory("file-sniffer-index").toFile();
+        File indexDir = new File(dir, "index");
+        File log = new File(dir, "access.log");
+        writeLines(log, 0, 100);
+        File indexFile = new File(indexDir, log.getName() + ".tsidx");
+
+        TimestampIndexer indexer = new TimestampIndexer(indexDir, 256, EXTRACTOR);
+        indexer.add(log);
+        indexer.scanAll();
+        indexer.remove(log);
+        indexer.scanAll();
+
+        // 停止期间文件被截断后写入更多新数据（如copytruncate），文件标识不变，按第一条记录的时间戳识别
+        Files.write(log.toPath(), new byte[0], StandardOpenOption.TRUNCATE_EXISTING);
+        writeLines(log, 1000, 1300);
+        indexer = new TimestampIndexer(indexDir, 256, EXTRACTOR);
+        indexer.add(log);
+        indexer.scanAll();
+        Assert.assertEquals(1000, firstTimestamp(indexFile));
+        List<String> replayed = new ArrayList<>();
+        indexer.replay(log, 1150, replayed::add);
+        Assert.assertEquals(150, replayed.size());
+        Assert.assertTrue(replayed.get(0).startsWith("1150 "));
+
+        // 运行中文件被替换
+        File rotated = new File(dir, "access.log.1");
+        Assert.assertTrue(log.renameTo(rotated));
+        writeLines(log, 2000, 2400);
+        indexer.scanAll();
+        Assert.assertEquals(2000, firstTimestamp(indexFile));
+        replayed.clear();
+        indexer.replay(log, 2100, replayed::add);
+        Assert.assertEquals(300, replayed.size());
+        Assert.assertTrue(replayed.get(0).startsWith("2100 "));
+        indexer.remove(log);
+        indexer.scanAll();
+    }
+
+    @Test
+    public void testReplayUntilLivePosition() throws IOException {
+        File dir = Files.createTempDirectory("file-sniffer-index").toFile();
+        File log = new File(dir, "access.log");
+        writeLines(log, 0, 200);
+        TimestampIndexer indexer = new TimestampIndexer(new File(dir, "index"), 256, EXTRACTOR);
+        indexer.add(log);
+        indexer.scanAll();
+
+        // 截止到实时监听最后读到的时间戳
+        List<String> replayed = new ArrayList<>();
+        indexer.replay(log, 50, 120, Long.MAX_VALUE, replayed::add);
+        Assert.assertEquals(71, replayed.size());
+        Assert.assertTrue(replayed.get(0).startsWith("50 "));
+        Assert.assertTrue(replayed.get(70).startsWith("120 "));
+
+        // 实时监听尚未读到数据时，截止到Tailer启动时的文件末尾
+        long startOffset = log.length();
+        writeLines(log, 200, 300);
+        replayed.clear();
+        indexer.replay(log, 150, -1, startOffset, replayed::add);
+        Assert.assertEquals(50, replayed.size());
+        Assert.assertTrue(replayed.get(49).startsWith("199 "));
+        indexer.remove(log);
+        indexer.scanAll();
+    }
+
+    private static long entries(File indexFile) {
+        return (indexFile.length() - SparseTimestampIndex.HEADER_SIZE) / SparseTimestampIndex.ENTRY_SIZE;
+    }
+
+    private static long firstTimestamp(File indexFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "r")) {
+            raf.seek(SparseTimestampIndex.HEADER_SIZE);
+            return raf.readLong();
+        }
+    }
+
+    private static void writeLines(File file, int from, int to) throws IOException {
+        StringBuilder builder = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            builder.append(i).append(" line-").append(i).append('\n');
+        }
+        Files.write(file.toPath(), builder.toString().getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+}
@@ -0,0 +1,115 @@
+package com.jthinking.util.file;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class TimestampMergerTest {
+
+    /**
+     * 行首数字为时间戳，没有时返回-1
+     */
+    private static final FileSniffer.TimestampExtractor EXTRACTOR = line -> {
+        int end = line.indexOf(' ');
+        try {
+            return Long.parseLong(end < 0 ? line : line.substring(0, end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    };
+
+    @Test
+    public void testMergeOrder() throws Exception {
+        List<String> output = new CopyOnWriteArrayList<>();
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        TimestampMerger merger = new TimestampMerger(EXTRACTOR, 60000, 100, budget, output::add);
+        File a = new File("a.log");
+        File b = new File("b.log");
+        File c = new File("c.log");
+        add(merger.source(a), "1 a", "4 a", "7 a");
+        add(merger.source(b), "2 b", "5 b", "8 b");
+        add(merger.source(c), "3 c", "6 c", "9 c");
+        Assert.assertTrue(budget.getUsed() > 0);
+        merger.finish(a);
+        merger.finish(b);
+        merger.finish(c);
+        merger.start();
+        await(output, 9, 5000);
+        merger.stop();
+        Assert.assertEquals(Arrays.asList("1 a", "2 b", "3 c", "4 a", "5 b", "6 c", "7 a", "8 b", "9 c"), output);
+        Assert.assertEquals(0, budget.getUsed());
+    }
+
+    @Test
+    public void testReorderWindowTimeout() throws Exception {
+        List<String> output = new CopyOnWriteArrayList<>();
+        TimestampMerger merger = new TimestampMerger(EXTRACTOR, 300, 100, null, output::add);
+        merger.start();
+        merger.source(new File("idle.log"));
+        long start = System.nanoTime();
+        add(merger.source(new File("busy.log")), "1 busy");
+        // 另一个文件没有数据，等待乱序窗口后输出
+        Thread.sleep(100);
+        Assert.assertTrue(output.isEmpty());
+        await(output, 1, 5000);
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+        merger.stop();
+        Assert.assertEquals("1 busy", output.get(0));
+        Assert.assertTrue(elapsedMillis >= 300);
+    }
+
+    @Test
+    public void testTimestampInheritance() throws Exception {
+        List<String> output = new CopyOnWriteArrayList<>();
+        TimestampMerger merger = new TimestampMerger(EXTRACTOR, 60000, 100, null, output::add);
+        File a = new File("a.log");
+        File b = new File("b.log");
+        add(merger.source(a), "1000 error", "\tat Foo.bar", "\tat Foo.main", "3000 a");
+        add(merger.source(b), "2000 b");
+        merger.finish(a);
+        merger.finish(b);
+        merger.start();
+        await(output, 5, 5000);
+        merger.stop();
+        // 异常堆栈沿用上一行时间戳，与上一行保持相邻
+        Assert.assertEquals(Arrays.asList("1000 error", "\tat Foo.bar", "\tat Foo.main", "2000 b", "3000 a"), output);
+    }
+
+    @Test
+    public void testStopReleasesBudget() {
+        MemoryBudget budget = new MemoryBudget(1024 * 1024);
+        TimestampMerger merger = new TimestampMerger(EXTRACTOR, 60000, 100, budget, line -> {});
+        add(merger.source(new File("a.log")), "1 a", "2 a", "3 a");
+        Assert.assertTrue(budget.getUsed() > 0);
+        merger.stop();
+        Assert.assertEquals(0, budget.getUsed());
+        Assert.assertEquals(budget.getCapacity(), budget.getFairShare());
+    }
+
+    @Test
+    public void testFinishReplacesSource() {
+        TimestampMerger merger = new TimestampMerger(EXTRACTOR, 60000, 100, null, line -> {});
+        File file = new File("a.log");
+        TimestampMerger.Source source = merger.source(file);
+        Assert.assertSame(source, merger.source(file));
+        merger.finish(file);
+        Assert.assertNotSame(source, merger.source(file));
+    }
+
+    private static void add(TimestampMerger.Source source, String... lines) {
+        for (String line : lines) {
+            source.add(line);
+        }
+    }
+
+    private static void await(List<String> output, int size, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (output.size() < size && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+    }
+}